@@ -0,0 +1,97 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+pool para las importaciones masivas
+
+como mucho ${batch.import.in-flight} pdfs leidos y pendientes de procesar a la vez: quien lee
+el zip se queda esperando en submit hasta que haya hueco, asi el archivo se consume a la
+velocidad a la que se procesa y no se carga entero en memoria
+
+las ocurrencias van al proveedor en lotes de ${batch.import.batch-size}. Por defecto cada lote
+son llamadas sueltas en paralelo; con ${batch.import.provider-bulk}=true el lote va en una sola
+llamada a BulkOcurrencesProvider, solo para un proveedor que tenga ese endpoint
+ */
+@Slf4j
+@Component
+public class BatchImportExecutor {
+
+    private final ThreadPoolExecutor executor;
+
+    private final Semaphore inFlight;
+
+    private final int batchSize;
+
+    private final boolean providerBulk;
+
+    public BatchImportExecutor(
+            @Value("${batch.import.workers:0}") int workers,
+            @Value("${batch.import.in-flight:0}") int inFlight,
+            @Value("${batch.import.batch-size:20}") int batchSize,
+            @Value("${batch.import.provider-bulk:false}") boolean providerBulk
+    ) {
+        final int poolSize = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        final AtomicInteger threads = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+                poolSize,
+                poolSize,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                r -> {
+                    final Thread thread = new Thread(r, "batch-import-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+        this.inFlight = new Semaphore(inFlight > 0 ? inFlight : poolSize * 2);
+        this.batchSize = batchSize;
+        this.providerBulk = providerBulk;
+    }
+
+    public <T> CompletableFuture<T> submit(final Callable<T> task) throws InterruptedException {
+        this.inFlight.acquire();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return task.call();
+                } catch (final RuntimeException e) {
+                    throw e;
+                } catch (final Exception e) {
+                    throw new CompletionException(e);
+                } finally {
+                    this.inFlight.release();
+                }
+            }, this.executor);
+        } catch (final RuntimeException e) {
+            this.inFlight.release();
+            throw e;
+        }
+    }
+
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    public boolean isProviderBulk() {
+        return this.providerBulk;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+}
@@ -0,0 +1,53 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import org.springframework.http.ResponseEntity;
+
+/*
+resultado de un pdf dentro de una importacion masiva
+ */
+public class BatchImportResult {
+
+    private final String fileName;
+
+    private final boolean ok;
+
+    private final String error;
+
+    private final ResponseEntity<Object> response;
+
+    private BatchImportResult(
+            final String fileName,
+            final boolean ok,
+            final String error,
+            final ResponseEntity<Object> response
+    ) {
+        this.fileName = fileName;
+        this.ok = ok;
+        this.error = error;
+        this.response = response;
+    }
+
+    static BatchImportResult sent(final String fileName, final ResponseEntity<Object> response) {
+        return new BatchImportResult(fileName, true, null, response);
+    }
+
+    static BatchImportResult failed(final String fileName, final String error) {
+        return new BatchImportResult(fileName, false, error, null);
+    }
+
+    public String getFileName() {
+        return this.fileName;
+    }
+
+    public boolean isOk() {
+        return this.ok;
+    }
+
+    public String getError() {
+        return this.error;
+    }
+
+    public ResponseEntity<Object> getResponse() {
+        return this.response;
+    }
+}
@@ -0,0 +1,105 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+hilos para el trabajo bloqueante ( jdbc, Blob, llamada al proveedor )
+
+con execution.virtual-threads.enabled=true y una jvm con hilos virtuales ( 21+ ) cada tarea va
+en su propio hilo virtual, y Tomcat y los workers de envio asincrono tambien los usan
+( VirtualThreadConfiguration ). Se obtienen por reflexion para seguir compilando con jvms antiguas.
+sin hilos virtuales fork() ejecuta en el mismo hilo, como hasta ahora
+ */
+@Slf4j
+@Component
+public class BlockingIoExecutor {
+
+    private final ExecutorService executor;
+
+    private final boolean virtual;
+
+    public BlockingIoExecutor(
+            @Value("${execution.virtual-threads.enabled:false}") boolean enabled
+    ) {
+        ExecutorService virtualExecutor = null;
+        if (enabled) {
+            try {
+                virtualExecutor = (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+            } catch (final ReflectiveOperationException e) {
+                log.warn("virtual threads requested but not supported by this jvm, using platform threads");
+            }
+        }
+        this.executor = virtualExecutor;
+        this.virtual = Objects.nonNull(virtualExecutor);
+    }
+
+    public boolean isVirtual() {
+        return this.virtual;
+    }
+
+    public ExecutorService getExecutor() {
+        return this.executor;
+    }
+
+    // lanza la tarea en otro hilo virtual, o la ejecuta ya si no hay hilos virtuales
+    public <T> CompletableFuture<T> fork(final Callable<T> task) {
+        if (this.virtual) {
+            final CompletableFuture<T> future = new CompletableFuture<>();
+            this.executor.execute(() -> {
+                try {
+                    future.complete(task.call());
+                } catch (final Exception e) {
+                    future.completeExceptionally(e);
+                }
+            });
+            return future;
+        }
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            future.complete(task.call());
+        } catch (final Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    // hilos virtuales con nombre si estan activos, si no hilos daemon normales
+    public ThreadFactory threadFactory(final String prefix) {
+        if (this.virtual) {
+            try {
+                final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                final Object named = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+                return (ThreadFactory) builderClass.getMethod("factory").invoke(named);
+            } catch (final ReflectiveOperationException e) {
+                log.warn("cannot create virtual thread factory for {}", prefix, e);
+            }
+        }
+        final AtomicInteger threads = new AtomicInteger();
+        return r -> {
+            final Thread thread = new Thread(r, prefix + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (this.virtual) {
+            this.executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.easa.eccairs.importpdf.core.provider;
+
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+
+/*
+alta de varias ocurrencias en una sola llamada, para las importaciones masivas
+
+OcurrencesProvider no lo tiene: solo se usa si hay un bean que lo implemente y
+batch.import.provider-bulk=true. La respuesta tiene que traer una ocurrencia creada por cada
+una enviada y en el mismo orden
+ */
+public interface BulkOcurrencesProvider {
+
+    ResponseEntity<List<Object>> getCreateOcurrencesPublic(List<byte[]> ocurrences);
+}
@@ -0,0 +1,202 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.easa.eccairs.importpdf.core.exception.BadRequestException;
+import org.easa.eccairs.importpdf.core.exception.UploadFileException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+subida por trozos de un pdf, asociada al idContext que devuelve beginUploadFile
+
+cada trozo se escribe en un fichero propio de ese idContext, nunca en memoria entera.
+si se corta la subida, el cliente pregunta getOffset y sigue desde el ultimo byte confirmado.
+al terminar, el fichero se pasa en streaming al Blob del PdfModel y se borra
+
+las subidas abandonadas ( ningun trozo nuevo en ${upload.staging.ttl-minutes} ) se borran en una
+pasada cada ${upload.staging.sweep-minutes}, la primera al arrancar
+
+append, complete, discard y el barrido de un mismo idContext van de uno en uno con un lock de
+un conjunto fijo ( LOCK_STRIPES, por idContext ), que nunca se borra ni se sustituye: dos
+hilos con el mismo idContext siempre cogen el mismo lock. Son ReentrantLock porque complete
+guarda en la base de datos con el lock cogido ( hilos virtuales )
+ */
+@Slf4j
+@Component
+public class ChunkedUploadStore {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String SUFFIX = ".part";
+
+    private static final int LOCK_STRIPES = 256;
+
+    private final Path folder;
+
+    private final long ttlMillis;
+
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    private final ScheduledExecutorService sweeper;
+
+    public ChunkedUploadStore(
+            @Value("${upload.staging.folder:${java.io.tmpdir}/importpdf-uploads}") String folder,
+            @Value("${upload.staging.ttl-minutes:1440}") long ttlMinutes,
+            @Value("${upload.staging.sweep-minutes:60}") long sweepMinutes
+    ) throws IOException {
+        this.folder = Files.createDirectories(Paths.get(folder));
+        this.ttlMillis = TimeUnit.MINUTES.toMillis(ttlMinutes);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            this.locks[i] = new ReentrantLock();
+        }
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "upload-staging-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sweeper.scheduleWithFixedDelay(this::sweep, 0L, sweepMinutes, TimeUnit.MINUTES);
+    }
+
+    public long getOffset(final Integer idContext) {
+        final Path path = this.pathOf(idContext);
+        try {
+            return Files.exists(path) ? Files.size(path) : 0L;
+        } catch (final IOException e) {
+            throw new UploadFileException(e.getMessage());
+        }
+    }
+
+    /*
+    escribe el trozo en la posicion offset, que tiene que ser la ultima confirmada,
+    y devuelve la nueva posicion confirmada
+     */
+    public long append(final Integer idContext, final long offset, final InputStream chunk) {
+        final ReentrantLock lock = this.lockOf(idContext);
+        lock.lock();
+        try {
+            final long current = this.getOffset(idContext);
+            if (offset != current) {
+                throw new BadRequestException("upload offset " + offset + " does not match acknowledged offset " + current);
+            }
+            try (final FileChannel channel = FileChannel.open(
+                    this.pathOf(idContext),
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+                 final ReadableByteChannel in = Channels.newChannel(chunk)) {
+                final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                long position = offset;
+                while (in.read(buffer) != -1) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                    buffer.clear();
+                }
+                channel.force(false);
+                return position;
+            } catch (final IOException e) {
+                throw new UploadFileException(e.getMessage());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+    pasa el fichero subido y su tamano a upload con el lock cogido ( no puede llegar un trozo
+    mientras se guarda ) y si termina bien lo borra
+     */
+    public void complete(final Integer idContext, final StagedUpload upload) throws IOException {
+        final ReentrantLock lock = this.lockOf(idContext);
+        lock.lock();
+        try {
+            upload.accept(this.pathOf(idContext), this.getOffset(idContext));
+            this.delete(idContext);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void discard(final Integer idContext) {
+        final ReentrantLock lock = this.lockOf(idContext);
+        lock.lock();
+        try {
+            this.delete(idContext);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void delete(final Integer idContext) {
+        try {
+            Files.deleteIfExists(this.pathOf(idContext));
+        } catch (final IOException e) {
+            log.error("error deleting staged upload {}", idContext, e);
+        }
+    }
+
+    // borra los ficheros de subida que llevan mas del ttl sin recibir trozos
+    void sweep() {
+        final long limit = System.currentTimeMillis() - this.ttlMillis;
+        try (final DirectoryStream<Path> staged = Files.newDirectoryStream(this.folder, "*" + SUFFIX)) {
+            for (final Path path : staged) {
+                final String name = path.getFileName().toString();
+                final Integer idContext;
+                try {
+                    idContext = Integer.valueOf(name.substring(0, name.length() - SUFFIX.length()));
+                } catch (final NumberFormatException e) {
+                    continue;
+                }
+                final ReentrantLock lock = this.lockOf(idContext);
+                lock.lock();
+                // se vuelve a mirar con el lock cogido, puede haber llegado un trozo
+                try {
+                    if (Files.exists(path) && Files.getLastModifiedTime(path).toMillis() < limit) {
+                        Files.deleteIfExists(path);
+                        log.info("removed abandoned staged upload {}", idContext);
+                    }
+                } catch (final IOException e) {
+                    log.error("error deleting staged upload {}", idContext, e);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } catch (final IOException | RuntimeException e) {
+            log.error("error sweeping staged uploads", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        this.sweeper.shutdownNow();
+    }
+
+    private ReentrantLock lockOf(final Integer idContext) {
+        return this.locks[Math.floorMod(idContext.hashCode(), LOCK_STRIPES)];
+    }
+
+    public interface StagedUpload {
+        void accept(Path file, long size) throws IOException;
+    }
+
+    private Path pathOf(final Integer idContext) {
+        return this.folder.resolve(idContext + SUFFIX);
+    }
+}
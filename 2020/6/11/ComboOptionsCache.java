@@ -0,0 +1,139 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.interactive.form.PDAcroForm;
+import org.apache.pdfbox.pdmodel.interactive.form.PDComboBox;
+import org.apache.pdfbox.pdmodel.interactive.form.PDField;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+diccionarios etiqueta <-> codigo de los combos de cada plantilla
+
+se sacan una sola vez por tipo de pdf de la plantilla en blanco del servidor ( FormTemplateCache )
+si el tipo tiene plantilla configurada, y se comparten ( solo lectura ) entre peticiones, asi
+convertir un valor es una sola busqueda en un mapa.
+si no hay plantilla ( o no tiene ese combo ) el diccionario se saca del combo del primer pdf
+subido de ese tipo y se guarda para los siguientes. Un combo con otro numero de opciones ( otra
+revision del formulario ) usa las suyas solo para esa peticion, sin cambiar lo guardado.
+la plantilla se lee fuera de los bloqueos del mapa, dos peticiones a la vez la pueden leer las
+dos y se queda la primera. las plantillas solo cambian al desplegar, clear() vuelve a leerlas
+ */
+@Slf4j
+@Component
+public class ComboOptionsCache {
+
+    private final FormTemplateCache formTemplateCache;
+
+    private final Map<String, Map<String, ComboOptions>> options = new ConcurrentHashMap<>();
+
+    public ComboOptionsCache(FormTemplateCache formTemplateCache) {
+        this.formTemplateCache = formTemplateCache;
+    }
+
+    public ComboOptions get(final String pdfType, final PDComboBox pdComboBox) {
+        Map<String, ComboOptions> combos = this.options.get(pdfType);
+        if (Objects.isNull(combos)) {
+            final Map<String, ComboOptions> loaded = this.load(pdfType);
+            combos = this.options.putIfAbsent(pdfType, loaded);
+            if (Objects.isNull(combos)) {
+                combos = loaded;
+            }
+        }
+        final String name = pdComboBox.getFullyQualifiedName();
+        final ComboOptions cached = combos.get(name);
+        if (Objects.nonNull(cached) && cached.optionCount == optionCount(pdComboBox)) {
+            return cached;
+        }
+        final ComboOptions own = ComboOptions.of(pdComboBox);
+        if (Objects.isNull(cached)) {
+            combos.putIfAbsent(name, own);
+        }
+        return own;
+    }
+
+    // tamano de /Opt sin construir las listas de opciones
+    private static int optionCount(final PDComboBox pdComboBox) {
+        final COSBase opt = pdComboBox.getCOSObject().getDictionaryObject(COSName.OPT);
+        return opt instanceof COSArray ? ((COSArray) opt).size() : 0;
+    }
+
+    private Map<String, ComboOptions> load(final String pdfType) {
+        final Map<String, ComboOptions> combos = new ConcurrentHashMap<>();
+        if (!this.formTemplateCache.hasTemplate(pdfType)) {
+            log.info("no template for pdf type {}, combo options are taken from the first uploaded pdfs", pdfType);
+            return combos;
+        }
+        try (final PDDocument template = this.formTemplateCache.open(pdfType)) {
+            final PDAcroForm acroForm = template.getDocumentCatalog().getAcroForm();
+            if (Objects.nonNull(acroForm)) {
+                for (final Iterator<PDField> it = acroForm.getFieldIterator(); it.hasNext(); ) {
+                    final PDField field = it.next();
+                    if (field instanceof PDComboBox) {
+                        combos.put(field.getFullyQualifiedName(), ComboOptions.of((PDComboBox) field));
+                    }
+                }
+            }
+        } catch (final IOException e) {
+            // no se guarda nada, se vuelve a intentar en la siguiente peticion
+            throw new IllegalStateException("error reading template of pdf type " + pdfType, e);
+        }
+        return combos;
+    }
+
+    public void clear() {
+        this.options.clear();
+    }
+
+    public static final class ComboOptions {
+
+        private final Map<String, String> exportToDisplay;
+
+        private final Map<String, String> displayToExport;
+
+        private final int optionCount;
+
+        private ComboOptions(
+                final Map<String, String> exportToDisplay,
+                final Map<String, String> displayToExport,
+                final int optionCount
+        ) {
+            this.exportToDisplay = Collections.unmodifiableMap(exportToDisplay);
+            this.displayToExport = Collections.unmodifiableMap(displayToExport);
+            this.optionCount = optionCount;
+        }
+
+        private static ComboOptions of(final PDComboBox pdComboBox) {
+            final List<String> exportValues = pdComboBox.getOptionsExportValues();
+            final List<String> displayValues = pdComboBox.getOptionsDisplayValues();
+            final int size = Math.min(exportValues.size(), displayValues.size());
+            final Map<String, String> exportToDisplay = new HashMap<>(size * 2);
+            final Map<String, String> displayToExport = new HashMap<>(size * 2);
+            for (int i = 0; i < size; i++) {
+                exportToDisplay.put(exportValues.get(i), displayValues.get(i));
+                displayToExport.put(displayValues.get(i), exportValues.get(i));
+            }
+            return new ComboOptions(exportToDisplay, displayToExport, optionCount(pdComboBox));
+        }
+
+        public String toDisplay(final String exportValue) {
+            return this.exportToDisplay.get(exportValue);
+        }
+
+        public String toExport(final String displayValue) {
+            return this.displayToExport.get(displayValue);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/*
+sha-256 de contenidos, en hexadecimal
+ */
+public final class ContentHashes {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ContentHashes() {
+    }
+
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // el hash se va calculando segun se lee el flujo, sin guardarlo en memoria
+    public static Digesting digesting(final InputStream is) {
+        return new Digesting(is);
+    }
+
+    public static String sha256(final InputStream is) throws IOException {
+        final Digesting dis = digesting(is);
+        dis.drain();
+        return dis.hash();
+    }
+
+    public static String hex(final byte[] hash) {
+        return hex(hash, hash.length);
+    }
+
+    public static String hex(final byte[] hash, final int length) {
+        final char[] chars = new char[length * 2];
+        for (int i = 0; i < length; i++) {
+            chars[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[hash[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    /*
+    flujo que calcula el sha-256 y cuenta los bytes segun pasan. hash() solo vale para el
+    contenido entero si se ha leido hasta el final, drain() lee lo que quede
+     */
+    public static final class Digesting extends DigestInputStream {
+
+        private long count;
+
+        private Digesting(final InputStream is) {
+            super(is, sha256());
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1) {
+                this.count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int read = super.read(b, off, len);
+            if (read > 0) {
+                this.count += read;
+            }
+            return read;
+        }
+
+        public void drain() throws IOException {
+            final byte[] buffer = new byte[64 * 1024];
+            while (this.read(buffer) != -1) {
+                // solo hace falta el hash
+            }
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public String hash() {
+            return hex(this.getMessageDigest().digest());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import org.easa.eccairs.importpdf.core.exception.BadRequestException;
+import org.easa.eccairs.importpdf.core.exception.DownloadException;
+import org.easa.eccairs.importpdf.util.Constants;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ResourceUtils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+plantillas pdf en blanco de classpath:downloadfile/
+
+la primera vez que se piden se mapean en memoria ( solo lectura ) y se calculan su ETag y
+Last-Modified, las siguientes descargas salen del buffer sin volver a tocar el classpath
+ */
+@Component
+public class DownloadResourceCache {
+
+    private static final String DOWNLOAD_FOLDER = "classpath:downloadfile/";
+
+    private final Map<String, DownloadResource> resources = new ConcurrentHashMap<>();
+
+    public DownloadResource get(final String fileName) {
+        if (Objects.isNull(fileName) || fileName.isEmpty() || fileName.contains("/")
+                || fileName.contains("\\") || fileName.contains("..")) {
+            throw new BadRequestException("");
+        }
+        final DownloadResource cached = this.resources.get(fileName);
+        if (Objects.nonNull(cached)) {
+            return cached;
+        }
+        final DownloadResource resource = load(fileName);
+        final DownloadResource previous = this.resources.putIfAbsent(fileName, resource);
+        return Objects.isNull(previous) ? resource : previous;
+    }
+
+    public void clear() {
+        this.resources.clear();
+    }
+
+    private static DownloadResource load(final String fileName) {
+        final File file;
+        try {
+            file = ResourceUtils.getFile(DOWNLOAD_FOLDER + fileName);
+        } catch (final FileNotFoundException e) {
+            throw new BadRequestException("");
+        }
+        if (!file.exists()) {
+            throw new DownloadException("file : " + Constants.NAME_FILE_EXITS);
+        }
+        String mimeType = URLConnection.guessContentTypeFromName(file.getName());
+        if (mimeType == null) {
+            mimeType = Constants.APPLICATION_OCTECT_STREAM;
+        }
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asReadOnlyBuffer();
+            return new DownloadResource(
+                    file.getName(),
+                    mimeType,
+                    content,
+                    etagOf(content),
+                    // las cabeceras http van en segundos
+                    file.lastModified() / 1000 * 1000
+            );
+        } catch (final IOException e) {
+            throw new DownloadException("map : " + e.getMessage());
+        }
+    }
+
+    private static String etagOf(final ByteBuffer content) {
+        final MessageDigest digest = ContentHashes.sha256();
+        digest.update(content.duplicate());
+        return '"' + ContentHashes.hex(digest.digest(), 16) + '"';
+    }
+
+    public static final class DownloadResource {
+
+        private final String name;
+
+        private final String mimeType;
+
+        private final ByteBuffer content;
+
+        private final String etag;
+
+        private final long lastModified;
+
+        private DownloadResource(
+                final String name,
+                final String mimeType,
+                final ByteBuffer content,
+                final String etag,
+                final long lastModified
+        ) {
+            this.name = name;
+            this.mimeType = mimeType;
+            this.content = content;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public String getMimeType() {
+            return this.mimeType;
+        }
+
+        public long getLength() {
+            return this.content.capacity();
+        }
+
+        // cada llamada tiene su propia vista del buffer compartido
+        public ByteBuffer slice(final long start, final long end) {
+            final ByteBuffer view = this.content.duplicate();
+            view.limit((int) end + 1);
+            view.position((int) start);
+            return view;
+        }
+
+        public String getEtag() {
+            return this.etag;
+        }
+
+        public long getLastModified() {
+            return this.lastModified;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.easa.eccairs.importpdf.core.exception.GetStructureException;
+import org.easa.eccairs.importpdf.data.model.AttributeModel;
+import org.easa.eccairs.importpdf.data.model.PdfFieldConfModel;
+import org.easa.eccairs.importpdf.data.repository.AttributeRepository;
+import org.easa.eccairs.importpdf.data.repository.PdfFieldConfRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+cache de la configuracion de campos por tipo de pdf
+
+se carga con un solo findAll de attribute y otro de pdf_field_conf para todos los tipos,
+y se vuelve a cargar cuando caduca el ttl, cuando TaxonomyRegistry carga otra taxonomia
+( getRevision() ) o cuando se llama a refresh()
+( hay que llamarlo despues de cambiar las tablas de configuracion )
+
+cada tipo se compila por separado: si una jerarquia de un tipo esta mal ese tipo se queda
+con su configuracion anterior ( o, si no la tenia, sus envios fallan con GetStructureException )
+y los demas tipos se cargan igual.
+si falla la carga entera ( bbdd ) se sigue con la anterior y se reintenta pasados
+${pdf.field-conf.cache.retry-seconds}, no en cada envio
+
+la carga va con un ReentrantLock y no con synchronized: hace consultas JDBC y un hilo virtual
+que se bloquea dentro de synchronized deja clavado su hilo portador
+ */
+@Slf4j
+@Component
+public class FieldConfCache {
+
+    private final AttributeRepository attributeRepository;
+
+    private final PdfFieldConfRepository pdfFieldConfRepository;
+
+    private final TaxonomyRegistry taxonomyRegistry;
+
+    private final long ttlMillis;
+
+    private final long retryMillis;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong loads = new AtomicLong();
+
+    private final ReentrantLock loading = new ReentrantLock();
+
+    private volatile Map<Integer, FieldConfIndex> indexes;
+
+    private volatile Map<Integer, GetStructureException> broken = Collections.emptyMap();
+
+    private volatile long loadedAt;
+
+    private volatile long taxonomyRevision;
+
+    public FieldConfCache(
+            AttributeRepository attributeRepository,
+            PdfFieldConfRepository pdfFieldConfRepository,
+            TaxonomyRegistry taxonomyRegistry,
+            @Value("${pdf.field-conf.cache.ttl-seconds:300}") long ttlSeconds,
+            @Value("${pdf.field-conf.cache.retry-seconds:30}") long retrySeconds
+    ) {
+        this.attributeRepository = attributeRepository;
+        this.pdfFieldConfRepository = pdfFieldConfRepository;
+        this.taxonomyRegistry = taxonomyRegistry;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        this.retryMillis = TimeUnit.SECONDS.toMillis(retrySeconds);
+    }
+
+    public FieldConfIndex get(final String pdfType) {
+        Map<Integer, FieldConfIndex> current = this.indexes;
+        if (Objects.isNull(current) || this.isExpired()) {
+            this.misses.incrementAndGet();
+            current = this.load(current);
+        } else {
+            this.hits.incrementAndGet();
+        }
+        final Integer type = Integer.parseInt(pdfType);
+        final FieldConfIndex index = current.get(type);
+        if (Objects.isNull(index)) {
+            final GetStructureException e = this.broken.get(type);
+            if (Objects.nonNull(e)) {
+                throw e;
+            }
+            return FieldConfIndex.EMPTY;
+        }
+        return index;
+    }
+
+    // carga la configuracion si no esta o ha caducado, sin contar acierto / fallo
+    public void warmUp() {
+        final Map<Integer, FieldConfIndex> current = this.indexes;
+        if (Objects.isNull(current) || this.isExpired()) {
+            this.load(current);
+        }
+    }
+
+    // a mano despues de cambiar las tablas: si falla se mantiene la anterior y se lanza el error
+    public void refresh() {
+        this.loading.lock();
+        try {
+            this.reload(true);
+        } finally {
+            this.loading.unlock();
+        }
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    public long getLoads() {
+        return this.loads.get();
+    }
+
+    private boolean isExpired() {
+        return this.taxonomyRevision != this.taxonomyRegistry.getRevision()
+                || this.ttlMillis > 0 && System.currentTimeMillis() - this.loadedAt > this.ttlMillis;
+    }
+
+    private Map<Integer, FieldConfIndex> load(final Map<Integer, FieldConfIndex> seen) {
+        this.loading.lock();
+        try {
+            // otro hilo puede haberla recargado mientras esperabamos
+            if (this.indexes != seen && !this.isExpired()) {
+                return this.indexes;
+            }
+            this.reload(false);
+            return this.indexes;
+        } finally {
+            this.loading.unlock();
+        }
+    }
+
+    private void reload(final boolean rethrow) {
+        // antes de cargar: si falla no se reintenta en cada envio, sino pasado retry-seconds
+        this.taxonomyRevision = this.taxonomyRegistry.getRevision();
+        try {
+            this.build();
+            this.loadedAt = System.currentTimeMillis();
+        } catch (final RuntimeException e) {
+            if (Objects.isNull(this.indexes)) {
+                // no hay ninguna anterior que servir
+                throw e;
+            }
+            log.error("field configuration reload failed, keeping the previous one", e);
+            this.loadedAt = System.currentTimeMillis() - this.ttlMillis + this.retryMillis;
+            if (rethrow) {
+                throw e;
+            }
+        }
+    }
+
+    private void build() {
+        final Map<Integer, Integer> atthash = new HashMap<>();
+        for (final AttributeModel am : this.attributeRepository.findAll()) {
+            atthash.put(am.getId(), am.getTaxonomy_code());
+        }
+
+        final Map<Integer, Map<String, String>> nameToCode = new HashMap<>();
+        final Map<Integer, Map<String, String>> codeToName = new HashMap<>();
+        final Map<Integer, Map<String, String>> codeToHierarchy = new HashMap<>();
+        final List<PdfFieldConfModel> pfc = this.pdfFieldConfRepository.findAll();
+        for (final PdfFieldConfModel reg : pfc) {
+            final Integer tax = atthash.get(reg.getAttribute_id());
+            if (Objects.isNull(tax)) {
+                log.error("pdf_field_conf {} points to unknown attribute {}", reg.getName(), reg.getAttribute_id());
+                continue;
+            }
+            final String code = this.taxonomyRegistry.code(tax);
+            nameToCode.computeIfAbsent(reg.getPdf_id(), k -> new HashMap<>()).put(reg.getName(), code);
+            codeToName.computeIfAbsent(reg.getPdf_id(), k -> new HashMap<>()).put(code, reg.getName());
+            codeToHierarchy.computeIfAbsent(reg.getPdf_id(), k -> new HashMap<>()).put(code, reg.getHierarchy());
+        }
+
+        final Map<Integer, FieldConfIndex> previous = this.indexes;
+        final Map<Integer, FieldConfIndex> built = new HashMap<>();
+        final Map<Integer, GetStructureException> brokenAux = new HashMap<>();
+        for (final Map.Entry<Integer, Map<String, String>> m : nameToCode.entrySet()) {
+            try {
+                built.put(m.getKey(), new FieldConfIndex(
+                        m.getValue(),
+                        codeToName.get(m.getKey()),
+                        codeToHierarchy.get(m.getKey())
+                ));
+            } catch (final GetStructureException e) {
+                final FieldConfIndex old = Objects.isNull(previous) ? null : previous.get(m.getKey());
+                log.error("field configuration of pdf type {} not loaded{}: {}",
+                        m.getKey(), Objects.isNull(old) ? "" : ", keeping the previous one", e.getMessage());
+                if (Objects.isNull(old)) {
+                    brokenAux.put(m.getKey(), e);
+                } else {
+                    built.put(m.getKey(), old);
+                }
+            }
+        }
+        this.indexes = Collections.unmodifiableMap(built);
+        this.broken = Collections.unmodifiableMap(brokenAux);
+        this.loads.incrementAndGet();
+        log.info("field configuration loaded for {} pdf types", built.size());
+    }
+}
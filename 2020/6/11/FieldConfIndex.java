@@ -0,0 +1,59 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import java.util.Collections;
+import java.util.Map;
+
+/*
+configuracion de campos de un tipo de pdf, sacada de pdf_field_conf y attribute:
+
+nameToCode      campo pdf ( "T1S1_E24-1_DT12_A454-1/L1" ) -> codigo de taxonomia ( "454" )
+codeToName      codigo de taxonomia -> campo pdf
+codeToHierarchy codigo de taxonomia -> jerarquia ( "{\"24\": {}}" )
+
+hierarchy       la jerarquia ya compilada, para montar el TaxNode
+
+es inmutable, se comparte entre peticiones
+ */
+public final class FieldConfIndex {
+
+    static final FieldConfIndex EMPTY = new FieldConfIndex(
+            Collections.emptyMap(),
+            Collections.emptyMap(),
+            Collections.emptyMap()
+    );
+
+    private final HierarchyTemplate hierarchy;
+
+    private final Map<String, String> nameToCode;
+
+    private final Map<String, String> codeToName;
+
+    private final Map<String, String> codeToHierarchy;
+
+    FieldConfIndex(
+            final Map<String, String> nameToCode,
+            final Map<String, String> codeToName,
+            final Map<String, String> codeToHierarchy
+    ) {
+        this.nameToCode = Collections.unmodifiableMap(nameToCode);
+        this.codeToName = Collections.unmodifiableMap(codeToName);
+        this.codeToHierarchy = Collections.unmodifiableMap(codeToHierarchy);
+        this.hierarchy = HierarchyTemplate.compile(codeToHierarchy, codeToName);
+    }
+
+    public Map<String, String> getNameToCode() {
+        return this.nameToCode;
+    }
+
+    public Map<String, String> getCodeToName() {
+        return this.codeToName;
+    }
+
+    public Map<String, String> getCodeToHierarchy() {
+        return this.codeToHierarchy;
+    }
+
+    public HierarchyTemplate getHierarchy() {
+        return this.hierarchy;
+    }
+}
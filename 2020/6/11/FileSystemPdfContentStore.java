@@ -0,0 +1,174 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/*
+almacen de pdfs en un directorio local, direccionado por contenido
+
+la referencia es el sha-256 del fichero y se guarda en <dir>/ab/abcdef... , asi un mismo pdf
+subido varias veces solo se guarda una vez. Se escribe primero en <dir>/tmp y se mueve al
+final, nunca queda un fichero a medias con el nombre bueno.
+
+el final de put() ( tocar o mover el fichero ) y deleteIfOlder() de un mismo contenido van con
+un lock de un conjunto fijo ( LOCK_STRIPES, por referencia ): el barrido no puede comprobar la
+fecha, dejar que un put() lo vuelva a guardar y borrarlo despues. Son ReentrantLock porque
+dentro se hace E/S ( hilos virtuales )
+
+se activa con pdf.content-store.type=file
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "pdf.content-store.type", havingValue = "file")
+public class FileSystemPdfContentStore implements PdfContentStore {
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    private final Path root;
+
+    private final Path tmp;
+
+    public FileSystemPdfContentStore(
+            @Value("${pdf.content-store.folder}") String folder
+    ) throws IOException {
+        this.root = Files.createDirectories(Paths.get(folder));
+        this.tmp = Files.createDirectories(this.root.resolve("tmp"));
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            this.locks[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    public String put(final InputStream is) throws IOException {
+        final Path part = Files.createTempFile(this.tmp, "upload", ".part");
+        try {
+            final DigestInputStream dis = ContentHashes.digesting(is);
+            try (final OutputStream out = Files.newOutputStream(part)) {
+                final byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = dis.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            final String ref = ContentHashes.hex(dis.getMessageDigest().digest());
+            final Path target = this.pathOf(ref);
+            final ReentrantLock lock = this.lockOf(ref);
+            lock.lock();
+            try {
+                if (Files.exists(target)) {
+                    // vuelve a estar en uso: que PdfContentSweeper no lo borre mientras se guarda el PdfModel
+                    Files.setLastModifiedTime(target, FileTime.fromMillis(System.currentTimeMillis()));
+                } else {
+                    Files.createDirectories(target.getParent());
+                    try {
+                        Files.move(part, target, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (final FileAlreadyExistsException e) {
+                        // otro nodo ha guardado el mismo contenido a la vez
+                        log.debug("content {} already stored", ref);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            return ref;
+        } finally {
+            Files.deleteIfExists(part);
+        }
+    }
+
+    @Override
+    public File file(final String ref) {
+        return this.pathOf(ref).toFile();
+    }
+
+    @Override
+    public InputStream open(final String ref) throws IOException {
+        return Files.newInputStream(this.pathOf(ref));
+    }
+
+    @Override
+    public boolean exists(final String ref) {
+        return Files.exists(this.pathOf(ref));
+    }
+
+    @Override
+    public List<String> refs() throws IOException {
+        final List<String> refs = new ArrayList<>();
+        try (final DirectoryStream<Path> prefixes = Files.newDirectoryStream(this.root, "[0-9a-f][0-9a-f]")) {
+            for (final Path prefix : prefixes) {
+                try (final Stream<Path> files = Files.list(prefix)) {
+                    files.map(p -> p.getFileName().toString())
+                            .filter(name -> name.matches("[0-9a-f]{64}"))
+                            .forEach(refs::add);
+                }
+            }
+        }
+        return refs;
+    }
+
+    @Override
+    public long lastModified(final String ref) throws IOException {
+        return Files.getLastModifiedTime(this.pathOf(ref)).toMillis();
+    }
+
+    @Override
+    public boolean deleteIfOlder(final String ref, final long olderThan) throws IOException {
+        final Path path = this.pathOf(ref);
+        final ReentrantLock lock = this.lockOf(ref);
+        lock.lock();
+        try {
+            // se vuelve a mirar con el lock cogido, puede haberse guardado otra vez
+            if (!Files.exists(path) || Files.getLastModifiedTime(path).toMillis() >= olderThan) {
+                return false;
+            }
+            return Files.deleteIfExists(path);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int deleteIncomplete(final long olderThan) throws IOException {
+        int deleted = 0;
+        try (final DirectoryStream<Path> parts = Files.newDirectoryStream(this.tmp, "*.part")) {
+            for (final Path part : parts) {
+                if (Files.getLastModifiedTime(part).toMillis() < olderThan && Files.deleteIfExists(part)) {
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    private ReentrantLock lockOf(final String ref) {
+        return this.locks[Math.floorMod(ref.hashCode(), LOCK_STRIPES)];
+    }
+
+    private Path pathOf(final String ref) {
+        if (!ref.matches("[0-9a-f]{64}")) {
+            throw new IllegalArgumentException("bad content reference " + ref);
+        }
+        return this.root.resolve(ref.substring(0, 2)).resolve(ref);
+    }
+}
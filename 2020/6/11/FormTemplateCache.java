@@ -0,0 +1,76 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.easa.eccairs.importpdf.core.exception.BadRequestException;
+import org.easa.eccairs.importpdf.core.service.impl.DownloadResourceCache.DownloadResource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+plantillas en blanco de cada tipo de pdf, para generar formularios ya rellenos y para sacar
+los diccionarios de los combos ( ComboOptionsCache )
+
+${pdf.export.templates} dice que fichero de classpath:downloadfile/ es la plantilla de cada
+tipo ( tipo=fichero ). Los bytes de cada plantilla se sacan una sola vez del buffer de
+DownloadResourceCache y cada peticion abre su propio PDDocument desde memoria ( PDFBox no
+permite copiar un PDDocument ya abierto ni compartirlo entre hilos ), sin volver al disco
+ */
+@Slf4j
+@Component
+public class FormTemplateCache {
+
+    private final DownloadResourceCache downloadResourceCache;
+
+    private final Map<String, String> fileNames = new ConcurrentHashMap<>();
+
+    private final Map<String, byte[]> templates = new ConcurrentHashMap<>();
+
+    public FormTemplateCache(
+            DownloadResourceCache downloadResourceCache,
+            @Value("${pdf.export.templates:classpath:pdf-export-templates.properties}") Resource templatesResource
+    ) {
+        this.downloadResourceCache = downloadResourceCache;
+        if (templatesResource.exists()) {
+            try {
+                final Properties properties = PropertiesLoaderUtils.loadProperties(templatesResource);
+                for (final String pdfType : properties.stringPropertyNames()) {
+                    this.fileNames.put(pdfType, properties.getProperty(pdfType).trim());
+                }
+                log.info("loaded {} pdf export templates", this.fileNames.size());
+            } catch (final IOException e) {
+                log.error("error loading pdf export templates", e);
+            }
+        }
+    }
+
+    public boolean hasTemplate(final String pdfType) {
+        return this.fileNames.containsKey(pdfType);
+    }
+
+    // el que lo pide lo tiene que cerrar
+    public PDDocument open(final String pdfType) throws IOException {
+        return PDDocument.load(this.templates.computeIfAbsent(pdfType, this::read));
+    }
+
+    private byte[] read(final String pdfType) {
+        final String fileName = this.fileNames.get(pdfType);
+        if (Objects.isNull(fileName)) {
+            throw new BadRequestException("no template for pdf type " + pdfType);
+        }
+        final DownloadResource resource = this.downloadResourceCache.get(fileName);
+        final ByteBuffer content = resource.slice(0, resource.getLength() - 1);
+        final byte[] bytes = new byte[content.remaining()];
+        content.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,110 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import org.easa.eccairs.importpdf.core.exception.GetStructureException;
+import org.easa.eccairs.importpdf.util.TaxNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.StringTokenizer;
+
+/*
+jerarquia de un tipo de pdf ya compilada
+
+las cadenas de jerarquia de bbdd ( {"24": {"1": {"22": {}}}} ) se trocean una sola vez al
+cargar la configuracion, cada atributo queda con su campo pdf y las rutas ( "1,", "1,22," )
+donde se pone en el TaxNode. Para cada envio solo hay que rellenar los valores.
+
+los errores de datos de la jerarquia saltan al compilar, no al enviar
+ */
+public final class HierarchyTemplate {
+
+    static final String ROOT_HIERARCHY = "{\"24\": {}}";
+
+    static final String ROOT_ID = "24";
+
+    private final List<Slot> slots;
+
+    private HierarchyTemplate(final List<Slot> slots) {
+        this.slots = Collections.unmodifiableList(slots);
+    }
+
+    public static HierarchyTemplate compile(
+            final Map<String, String> codeToHierarchy,
+            final Map<String, String> codeToName
+    ) {
+        final List<Slot> slots = new ArrayList<>(codeToHierarchy.size());
+        for (final Map.Entry<String, String> m : codeToHierarchy.entrySet()) {
+            slots.add(compileSlot(m.getKey(), m.getValue(), codeToName.get(m.getKey())));
+        }
+        return new HierarchyTemplate(slots);
+    }
+
+    private static Slot compileSlot(final String code, final String hierarchy, final String fieldName) {
+        if (Objects.isNull(hierarchy) || hierarchy.equals("")) {
+            throw new GetStructureException(" (bbdd data error) hierarchy code for taxonomy : " + code + " is empty");
+        }
+        if (hierarchy.equals(ROOT_HIERARCHY)) {
+            return new Slot(code, fieldName, true, new String[0]);
+        }
+        final StringTokenizer token = new StringTokenizer(hierarchy, ":");
+        if (token.countTokens() < 2) {
+            throw new GetStructureException(" (bbdd data error) hierarchy code for taxonomy : " + code + " is malformed : " + hierarchy);
+        }
+        final List<String> paths = new ArrayList<>();
+        final StringBuilder strucEntry = new StringBuilder();
+        token.nextToken();
+        String tok = token.nextToken();
+        while (token.hasMoreTokens()) {
+            final String tokant = tok;
+            tok = token.nextToken();
+            if (tokant.length() < 4) {
+                throw new GetStructureException(" (bbdd data error) hierarchy code for taxonomy : " + code + " is malformed : " + hierarchy);
+            }
+            strucEntry.append(tokant, 3, tokant.length() - 1).append(',');
+            paths.add(strucEntry.toString());
+        }
+        return new Slot(code, fieldName, false, paths.toArray(new String[0]));
+    }
+
+    /*
+    mapCodes es campo pdf -> valor, los atributos cuyo campo no viene en el pdf no se ponen
+     */
+    public TaxNode fill(final Map<String, String> mapCodes) {
+        final TaxNode struct = new TaxNode();
+        struct.setId(ROOT_ID);
+        for (final Slot slot : this.slots) {
+            final String value = mapCodes.get(slot.fieldName);
+            if (Objects.isNull(value)) {
+                continue;
+            }
+            if (slot.root) {
+                struct.attr.put(slot.code, value);
+            }
+            for (final String path : slot.paths) {
+                struct.putAtrr(path, slot.code, value);
+            }
+        }
+        return struct;
+    }
+
+    private static final class Slot {
+
+        private final String code;
+
+        private final String fieldName;
+
+        private final boolean root;
+
+        private final String[] paths;
+
+        private Slot(final String code, final String fieldName, final boolean root, final String[] paths) {
+            this.code = code;
+            this.fieldName = fieldName;
+            this.root = root;
+            this.paths = paths;
+        }
+    }
+}
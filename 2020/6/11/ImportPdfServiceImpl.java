@@ -1,6 +1,8 @@
 package org.easa.eccairs.importpdf.core.service.impl;
 
 import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.interactive.form.PDAcroForm;
 import org.easa.eccairs.auth.client.EccairsAuthUser;
 import org.easa.eccairs.importpdf.core.dto.PersonalDetails;
 import org.easa.eccairs.importpdf.core.exception.BadExtensionException;
@@ -11,9 +13,15 @@ import org.easa.eccairs.importpdf.core.exception.BeginuploadException;
 import org.easa.eccairs.importpdf.core.exception.DownloadException;
 import org.easa.eccairs.importpdf.core.exception.FileEmptyException;
 import org.easa.eccairs.importpdf.core.exception.GenericException;
+import org.easa.eccairs.importpdf.core.exception.OccurrenceValidationException;
+import org.easa.eccairs.importpdf.core.exception.ServiceUnavailableException;
 import org.easa.eccairs.importpdf.core.exception.UploadFileException;
+import org.easa.eccairs.importpdf.core.provider.BulkOcurrencesProvider;
 import org.easa.eccairs.importpdf.core.provider.OcurrencesProvider;
+import org.easa.eccairs.importpdf.core.service.impl.DownloadResourceCache.DownloadResource;
+import org.easa.eccairs.importpdf.core.service.impl.ParseResultCache.ParseResult;
 import org.easa.eccairs.importpdf.core.service.ImportPdfService;
+import org.easa.eccairs.importpdf.core.service.PdfParseSession;
 import org.easa.eccairs.importpdf.core.service.PdfParserService;
 import org.easa.eccairs.importpdf.core.service.base.ImportPdfServiceBase;
 import org.easa.eccairs.importpdf.data.model.PdfModel;
@@ -21,48 +29,139 @@ import org.easa.eccairs.importpdf.data.repository.OtherFileRepository;
 import org.easa.eccairs.importpdf.data.repository.PdfRepository;
 import org.easa.eccairs.importpdf.util.Constants;
 import org.easa.eccairs.importpdf.util.TaxNode;
+import org.hibernate.engine.jdbc.BlobProxy;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.util.FileCopyUtils;
-import org.springframework.util.ResourceUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedInputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URLConnection;
-import java.sql.Blob;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
 import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 @Slf4j
 @Service
 public class ImportPdfServiceImpl extends ImportPdfServiceBase implements ImportPdfService {
 
+    private static final int MARK_RETRIES = 3;
+
     private final PdfParserService pdfParserService;
 
     private final OcurrencesProvider ocurrencesProvider;
 
+    private final BulkOcurrencesProvider bulkOcurrencesProvider;
+
+    private final ChunkedUploadStore chunkedUploadStore;
+
+    private final DownloadResourceCache downloadResourceCache;
+
+    private final SubmissionJobExecutor submissionJobExecutor;
+
+    private final BatchImportExecutor batchImportExecutor;
+
+    private final PdfImportMetrics metrics;
+
+    private final ParseResultCache parseResultCache;
+
+    private final PdfContentStore pdfContentStore;
+
+    private final OccurrenceSchemaValidator occurrenceSchemaValidator;
+
+    private final PdfParseLimits pdfParseLimits;
+
+    private final BlockingIoExecutor blockingIoExecutor;
+
+    private final FieldConfCache fieldConfCache;
+
+    private final PreParseExecutor preParseExecutor;
+
+    private final FormTemplateCache formTemplateCache;
+
+    private final SubmissionHistory submissionHistory;
+
+    private final SubmissionScheduler submissionScheduler;
+
+    private final SubmissionRecorder submissionRecorder;
+
+    private final TransactionTemplate readOnlyTransaction;
+
     public ImportPdfServiceImpl(
             PdfRepository pdfRepository,
             OtherFileRepository otherFilesRepository,
             PdfParserService pdfParserService,
-            OcurrencesProvider ocurrencesProvider
+            OcurrencesProvider ocurrencesProvider,
+            Optional<BulkOcurrencesProvider> bulkOcurrencesProvider,
+            ChunkedUploadStore chunkedUploadStore,
+            DownloadResourceCache downloadResourceCache,
+            SubmissionJobExecutor submissionJobExecutor,
+            BatchImportExecutor batchImportExecutor,
+            PdfImportMetrics metrics,
+            ParseResultCache parseResultCache,
+            Optional<PdfContentStore> pdfContentStore,
+            OccurrenceSchemaValidator occurrenceSchemaValidator,
+            PdfParseLimits pdfParseLimits,
+            BlockingIoExecutor blockingIoExecutor,
+            FieldConfCache fieldConfCache,
+            PreParseExecutor preParseExecutor,
+            FormTemplateCache formTemplateCache,
+            SubmissionHistory submissionHistory,
+            SubmissionScheduler submissionScheduler,
+            SubmissionRecorder submissionRecorder,
+            PlatformTransactionManager transactionManager
     ) {
         super(pdfRepository, otherFilesRepository);
         this.pdfParserService = pdfParserService;
         this.ocurrencesProvider = ocurrencesProvider;
+        this.bulkOcurrencesProvider = batchImportExecutor.isProviderBulk() ? bulkOcurrencesProvider.orElse(null) : null;
+        if (batchImportExecutor.isProviderBulk() && Objects.isNull(this.bulkOcurrencesProvider)) {
+            log.warn("batch.import.provider-bulk is on but there is no BulkOcurrencesProvider, batches are sent one by one");
+        }
+        this.chunkedUploadStore = chunkedUploadStore;
+        this.downloadResourceCache = downloadResourceCache;
+        this.submissionJobExecutor = submissionJobExecutor;
+        this.batchImportExecutor = batchImportExecutor;
+        this.metrics = metrics;
+        this.parseResultCache = parseResultCache;
+        this.pdfContentStore = pdfContentStore.orElse(null);
+        this.occurrenceSchemaValidator = occurrenceSchemaValidator;
+        this.pdfParseLimits = pdfParseLimits;
+        this.blockingIoExecutor = blockingIoExecutor;
+        this.fieldConfCache = fieldConfCache;
+        this.preParseExecutor = preParseExecutor;
+        this.formTemplateCache = formTemplateCache;
+        this.submissionHistory = submissionHistory;
+        this.submissionScheduler = submissionScheduler;
+        this.submissionRecorder = submissionRecorder;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
     }
 
     @Override
@@ -82,30 +181,121 @@ public class ImportPdfServiceImpl extends ImportPdfServiceBase implements Import
             final HttpServletResponse response,
             final String fileName
     ) {
-        final File file;
+        this.downloadPDFResource(null, response, fileName);
+    }
+
+    /*
+    con la peticion se atienden las cabeceras If-None-Match / If-Modified-Since ( 304 )
+    y Range ( 206, un solo rango ), sin ella se manda el fichero entero
+     */
+    public void downloadPDFResource(
+            final HttpServletRequest request,
+            final HttpServletResponse response,
+            final String fileName
+    ) {
+        final DownloadResource resource = this.downloadResourceCache.get(fileName);
+        response.setHeader(HttpHeaders.ETAG, resource.getEtag());
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, resource.getLastModified());
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (Objects.nonNull(request) && this.notModified(request, resource)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setContentType(resource.getMimeType());
+        response.setHeader(Constants.CONTENT_DISPOSITION, Constants.INLINE_FILE_NAME + resource.getName() + "\"");
+
+        final long length = resource.getLength();
+        long start = 0, end = length - 1;
+        final String range = Objects.isNull(request) ? null : request.getHeader(HttpHeaders.RANGE);
+        if (Objects.nonNull(range) && range.startsWith("bytes=") && !range.contains(",")) {
+            final long[] bounds = this.parseRange(range.substring(6).trim(), length);
+            if (Objects.isNull(bounds)) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                return;
+            }
+            start = bounds[0];
+            end = bounds[1];
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+        }
+        response.setContentLengthLong(end - start + 1);
         try {
-            file = ResourceUtils.getFile("classpath:downloadfile/" + fileName);
-        } catch (final FileNotFoundException e) {
-            throw new BadRequestException("");
+            final WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            final ByteBuffer body = resource.slice(start, end);
+            while (body.hasRemaining()) {
+                out.write(body);
+            }
+        } catch (final IOException e) {
+            throw new DownloadException("outputStream : " + e.getMessage());
         }
-        if (file.exists()) {
-            String mimeType = URLConnection.guessContentTypeFromName(file.getName());
-            if (mimeType == null) {
-                mimeType = Constants.APPLICATION_OCTECT_STREAM;
+    }
+
+    /*
+    formulario del tipo pdfType relleno con los valores de una ocurrencia ( misma forma
+    ATTRIBUTES / ENTITIES que monta mountJson ), para mandarlo al notificador a corregir
+     */
+    public void downloadPrefilledForm(
+            final HttpServletResponse response,
+            final Map<String, Object> ocurrence,
+            final String pdfType
+    ) {
+        final Map<String, String> codeValues = this.pdfParserService.getMapCodeValuesFromOcurrence(ocurrence);
+        final ByteArrayOutputStream filled = new ByteArrayOutputStream();
+        try (final PDDocument document = this.formTemplateCache.open(pdfType)) {
+            final PDAcroForm acroForm = document.getDocumentCatalog().getAcroForm();
+            if (Objects.isNull(acroForm)) {
+                throw new DownloadException("template for pdf type " + pdfType + " has no form");
             }
-            response.setContentType(mimeType);
-            response.setHeader(Constants.CONTENT_DISPOSITION, Constants.INLINE_FILE_NAME + file.getName() + "\"");
-            response.setContentLength((int) file.length());
-            try {
-                final InputStream inputStream = new BufferedInputStream(new FileInputStream(file));
-                FileCopyUtils.copy(inputStream, response.getOutputStream());
-            } catch (final FileNotFoundException e) {
-                throw new DownloadException("copy :" + e.getMessage());
-            } catch (final IOException e) {
-                throw new DownloadException("inputStream : " + e.getMessage());
+            this.pdfParserService.fillForm(acroForm, codeValues, pdfType);
+            document.save(filled);
+        } catch (final IOException e) {
+            throw new DownloadException("fill : " + e.getMessage());
+        }
+        response.setContentType(MediaType.APPLICATION_PDF_VALUE);
+        response.setHeader(Constants.CONTENT_DISPOSITION, Constants.INLINE_FILE_NAME + "form_" + pdfType + ".pdf\"");
+        response.setContentLength(filled.size());
+        try {
+            filled.writeTo(response.getOutputStream());
+        } catch (final IOException e) {
+            throw new DownloadException("outputStream : " + e.getMessage());
+        }
+    }
+
+    private boolean notModified(final HttpServletRequest request, final DownloadResource resource) {
+        final String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (Objects.nonNull(ifNoneMatch)) {
+            return ifNoneMatch.trim().equals("*") || Arrays.stream(ifNoneMatch.split(","))
+                    .map(String::trim)
+                    .map(tag -> tag.startsWith("W/") ? tag.substring(2) : tag)
+                    .anyMatch(resource.getEtag()::equals);
+        }
+        try {
+            final long ifModifiedSince = request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+            return ifModifiedSince != -1 && resource.getLastModified() <= ifModifiedSince;
+        } catch (final IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // devuelve {inicio, fin} incluidos, o null si el rango no se puede servir
+    private long[] parseRange(final String spec, final long length) {
+        final int dash = spec.indexOf('-');
+        if (dash < 0 || length == 0) {
+            return null;
+        }
+        try {
+            final String first = spec.substring(0, dash).trim();
+            final String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                final long suffix = Long.parseLong(last);
+                return suffix <= 0 ? null : new long[]{Math.max(0, length - suffix), length - 1};
             }
-        } else {
-            throw new DownloadException("file : " + Constants.NAME_FILE_EXITS);
+            final long start = Long.parseLong(first);
+            final long end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            return start > end || start >= length ? null : new long[]{start, end};
+        } catch (final NumberFormatException e) {
+            return null;
         }
     }
 
@@ -116,23 +306,176 @@ public class ImportPdfServiceImpl extends ImportPdfServiceBase implements Import
         } else if (!this.getExtension(uploadedFile.getOriginalFilename()).toUpperCase().equals(Constants.PDF)) {
             throw new BadExtensionException();
         }
+        this.pdfParseLimits.checkSize(uploadedFile.getSize());
         final String filename = uploadedFile.getOriginalFilename();
         final Optional<PdfModel> optional = this.pdfRepository.findById(idContext);
         final PdfModel pdfrepo = optional.get();
         try {
-            final byte[] bytes = uploadedFile.getBytes();
-            final Blob blob = new javax.sql.rowset.serial.SerialBlob(bytes);
-            pdfrepo.setModificationUser(null);
-            pdfrepo.setCreationUser(null);
-            pdfrepo.setCreationDate(new Date());
-            pdfrepo.setFile(blob);
-            pdfrepo.setName_file(filename);
-            this.pdfRepository.save(pdfrepo);
-        } catch (final IOException | SQLException e) {
+            this.saveUploadedFile(pdfrepo, filename, uploadedFile::getInputStream, uploadedFile.getSize());
+        } catch (final IOException e) {
             throw new UploadFileException(e.getMessage());
         }
     }
 
+    public long getUploadOffset(final Integer idContext) {
+        return this.chunkedUploadStore.getOffset(idContext);
+    }
+
+    public long uploadFileChunk(
+            final MultipartFile chunk,
+            final Integer idContext,
+            final long offset
+    ) {
+        if (offset == 0 && !this.pdfRepository.existsById(idContext)) {
+            throw new BadRequestException(Constants.ID_CONTEXT_NOT_FOUND);
+        }
+        this.pdfParseLimits.checkSize(offset + chunk.getSize());
+        try (final InputStream is = chunk.getInputStream()) {
+            return this.chunkedUploadStore.append(idContext, offset, is);
+        } catch (final IOException e) {
+            throw new UploadFileException(e.getMessage());
+        }
+    }
+
+    public void completeUploadFile(
+            final Integer idContext,
+            final String filename
+    ) {
+        if (!this.getExtension(filename).toUpperCase().equals(Constants.PDF)) {
+            throw new BadExtensionException();
+        }
+        // con el lock de la subida: no puede entrar un trozo mientras se guarda
+        try {
+            this.chunkedUploadStore.complete(idContext, (staged, size) -> {
+                if (size == 0) {
+                    throw new BadRequestException("");
+                }
+                final PdfModel pdfrepo = this.pdfRepository.findById(idContext)
+                        .orElseThrow(() -> new BadRequestException(Constants.ID_CONTEXT_NOT_FOUND));
+                this.saveUploadedFile(pdfrepo, filename, () -> Files.newInputStream(staged), size);
+            });
+        } catch (final IOException e) {
+            throw new UploadFileException(e.getMessage());
+        }
+    }
+
+    /*
+    el pdf nunca esta entero en memoria: o se copia en streaming al PdfContentStore y el
+    PdfModel solo guarda la referencia, o el Blob se rellena en streaming al guardar.
+    el hash del contenido se guarda en la misma fila ( content_hash ) y en el mismo save que
+    el pdf: es la clave de ParseResultCache en cualquier nodo, no depende de quien lo subio.
+    despues se adelanta el parseo en segundo plano
+     */
+    private void saveUploadedFile(
+            final PdfModel pdfrepo,
+            final String filename,
+            final UploadSource source,
+            final long size
+    ) throws IOException {
+        pdfrepo.setModificationUser(null);
+        pdfrepo.setCreationUser(null);
+        pdfrepo.setCreationDate(new Date());
+        pdfrepo.setName_file(filename);
+        final String hash;
+        if (Objects.nonNull(this.pdfContentStore)) {
+            try (final InputStream is = source.open()) {
+                hash = this.pdfContentStore.put(is);
+            }
+            pdfrepo.setFile(null);
+            pdfrepo.setFile_ref(hash);
+            pdfrepo.setContent_hash(hash);
+            this.pdfRepository.save(pdfrepo);
+        } else {
+            // una lectura para el hash y otra en streaming al Blob, las dos del fichero subido
+            try (final InputStream is = source.open()) {
+                hash = ContentHashes.sha256(is);
+            }
+            try (final InputStream is = source.open()) {
+                pdfrepo.setFile(BlobProxy.generateProxy(is, size));
+                pdfrepo.setFile_ref(null);
+                pdfrepo.setContent_hash(hash);
+                this.pdfRepository.save(pdfrepo);
+            }
+        }
+        this.metrics.uploaded(size);
+        this.preParse(pdfrepo.getId(), hash);
+    }
+
+    // el fichero subido, se puede abrir mas de una vez
+    private interface UploadSource {
+        InputStream open() throws IOException;
+    }
+
+    /*
+    parseo especulativo: tipo y valores quedan en la cache por contenido y el envio solo
+    tiene que montar la ocurrencia. Si el pdf del contexto se borra o se vuelve a subir el
+    contexto pasa a apuntar a otro hash ( o a ninguno ) y este resultado ya no se le aplica
+     */
+    private void preParse(final Integer idContext, final String hash) {
+        if (this.parseResultCache.contains(hash)) {
+            return;
+        }
+        final CompletableFuture<ParseResult> result = new CompletableFuture<>();
+        if (!this.parseResultCache.startPending(hash, result)) {
+            return;
+        }
+        // el Blob se lee en un hilo del pool: transaccion de solo lectura para tener la conexion
+        final CompletableFuture<ParseResult> task = this.preParseExecutor.submit(() -> this.readOnlyTransaction.execute(status -> {
+            try {
+                return this.preParseNow(idContext, hash);
+            } catch (final IOException | SQLException e) {
+                throw new CompletionException(e);
+            }
+        }));
+        if (Objects.isNull(task)) {
+            result.complete(null);
+            this.parseResultCache.endPending(hash, result);
+            return;
+        }
+        task.whenComplete((parsed, e) -> {
+            if (Objects.nonNull(e)) {
+                log.debug("pre-parse of context {} failed: {}", idContext, e.getMessage());
+                result.completeExceptionally(e);
+            } else {
+                result.complete(parsed);
+            }
+            this.parseResultCache.endPending(hash, result);
+        });
+    }
+
+    private ParseResult preParseNow(final Integer idContext, final String hash) throws IOException, SQLException {
+        // el contexto ya tiene otro pdf ( subido aqui o en otro nodo )
+        final Optional<PdfModel> optional = this.pdfRepository.findById(idContext);
+        if (!optional.isPresent() || !hash.equals(optional.get().getContent_hash())) {
+            return null;
+        }
+        // sin hueco de parseo adelantado no se espera: lo parseara el envio
+        try (final PdfParseLimits.Permit permit = this.pdfParseLimits.admit(PdfParseLimits.Use.PREPARSE)) {
+            this.parseResultCache.runningPending(hash);
+            final PdfImportMetrics.Stage load = this.metrics.start("document.load");
+            final PdfParseSession session;
+            if (Objects.nonNull(this.pdfContentStore)) {
+                session = this.pdfParserService.openSession(this.pdfContentStore.file(hash));
+            } else {
+                if (Objects.isNull(optional.get().getFile())) {
+                    return null;
+                }
+                // PDFBox lee el Blob en streaming ( a su scratch file ) y el hash se calcula a la vez
+                session = this.pdfParserService.openSession(optional.get());
+                // se ha vuelto a subir mientras tanto, el Blob ya no es el de este hash
+                if (!hash.equals(session.getContentHash())) {
+                    session.close();
+                    return null;
+                }
+            }
+            try {
+                return this.parse(session, load.stop(), hash);
+            } finally {
+                session.close();
+            }
+        }
+    }
+
     @Override
     public void deleteFile(
             final Integer id
@@ -140,9 +483,10 @@ public class ImportPdfServiceImpl extends ImportPdfServiceBase implements Import
         if (Objects.isNull(id)) {
             throw new FileEmptyException();
         }
+        // borrado por entidad ( cascadas y callbacks de JPA ), si no existe no borra nada
         this.otherFilesRepository
                 .findById(id)
-                .ifPresent(otherFilesRepository::delete);
+                .ifPresent(this.otherFilesRepository::delete);
     }
 
     @Override
@@ -179,10 +523,15 @@ public class ImportPdfServiceImpl extends ImportPdfServiceBase implements Import
         if (optional.isPresent()) {
             final PdfModel pdfrepo = optional.get();
             pdfrepo.setFile(null);
+            pdfrepo.setFile_ref(null);
+            pdfrepo.setContent_hash(null);
             pdfrepo.setName_file(null);
             pdfrepo.setCreationUser(null);
             pdfrepo.setCreationDate(null);
             this.pdfRepository.save(pdfrepo);
+            this.chunkedUploadStore.discard(idContext);
+            // el siguiente pdf de este contexto es una ocurrencia nueva, no un reenvio
+            this.submissionHistory.forget(idContext);
             return true;
         } else {
             throw new BadRequestException(Constants.ID_CONTEXT_NOT_FOUND);
@@ -190,17 +539,25 @@ public class ImportPdfServiceImpl extends ImportPdfServiceBase implements Import
     }
 
     @Override
+    @Transactional
     public void deleteFiles(
             MultipartFile[] uploadedFiles,
             Integer idContext
     ) {
-        for (final MultipartFile file : uploadedFiles) {
-            final Integer id = this.otherFilesRepository.findOtherFileRepositoryByNameAndIdcontext(
-                    idContext,
-                    file.getOriginalFilename()
-            );
-            this.deleteFile(id);
+        final Set<String> names = Arrays
+                .stream(uploadedFiles)
+                .map(MultipartFile::getOriginalFilename)
+                .filter(x -> !StringUtils.isEmpty(x))
+                .collect(Collectors.toSet());
+        if (names.isEmpty()) {
+            throw new FileEmptyException();
+        }
+        // dos sentencias sea cual sea el numero de ficheros: cuantos nombres distintos hay y un
+        // solo DELETE de JPQL. Si falta alguno no se borra ninguno ( misma transaccion )
+        if (this.otherFilesRepository.countNamesByIdcontextAndNameIn(idContext, names) < names.size()) {
+            throw new FileEmptyException();
         }
+        this.otherFilesRepository.deleteByIdcontextAndNameIn(idContext, names);
     }
 
     public ResponseEntity<Object> submitPdf(
@@ -210,6 +567,402 @@ public class ImportPdfServiceImpl extends ImportPdfServiceBase implements Import
             final int responsibleEntityId,
             final int reportingEntityId,
             final boolean isPublic
+    ) {
+        this.checkSubmission(personaldetails, user, isPublic);
+        // publicos y autenticados cada uno con su cupo, ver SubmissionScheduler
+        return this.submissionScheduler.run(
+                isPublic,
+                reportingEntityId,
+                () -> this.runSubmission(personaldetails, user, idContext, responsibleEntityId, reportingEntityId, isPublic));
+    }
+
+    private ResponseEntity<Object> runSubmission(
+            final PersonalDetails personaldetails,
+            final EccairsAuthUser user,
+            final int idContext,
+            final int responsibleEntityId,
+            final int reportingEntityId,
+            final boolean isPublic
+    ) {
+        // con hilos virtuales las consultas que no dependen entre si van en paralelo:
+        // la configuracion de campos se carga mientras se lee el pdf
+        final CompletableFuture<Void> warmUp = this.blockingIoExecutor.fork(() -> {
+            this.fieldConfCache.warmUp();
+            return null;
+        });
+        CompletableFuture<Integer> marked = null;
+        try {
+            final PdfModel pdfrepo = this.findPdf(idContext);
+            final MountedOcurrence mounted = this.mountSubmission(
+                    pdfrepo,
+                    personaldetails,
+                    user,
+                    responsibleEntityId,
+                    reportingEntityId,
+                    isPublic);
+            // el pdf ya esta leido: la marca de envio se guarda mientras se llama al proveedor,
+            // con un UPDATE de esa columna ( un save() desde otro hilo seria un merge de la entidad )
+            marked = this.blockingIoExecutor.fork(() -> this.pdfRepository.markSubmitted(idContext));
+            final ResponseEntity<Object> response = this.sendOcurrence(mounted);
+            // el proveedor ya ha contestado: si la marca falla no se devuelve error, el cliente
+            // volveria a enviar una ocurrencia que ya esta creada
+            this.awaitMark(marked, idContext);
+            if (response.getStatusCode().is2xxSuccessful()) {
+                // en el hilo del grabador, que vuelve a leer la fila en su transaccion
+                this.submissionRecorder.record(
+                        Objects.nonNull(pdfrepo.getFile_ref()) ? pdfrepo.getFile_ref() : pdfrepo.getContent_hash(),
+                        () -> this.openContent(this.findPdf(idContext)),
+                        isPublic,
+                        responsibleEntityId,
+                        reportingEntityId);
+            }
+            return response;
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof ServiceUnavailableException) {
+                throw (ServiceUnavailableException) e.getCause();
+            }
+            if (e.getCause() instanceof OccurrenceValidationException) {
+                throw (OccurrenceValidationException) e.getCause();
+            }
+            throw new GenericException(e.getCause().getMessage());
+        } catch (final BadRequestException e) {
+            throw new BadRequestException(e.getMessage());
+        } catch (final ServiceUnavailableException e) {
+            // sin hueco para parsear: el 503 llega tal cual al cliente
+            throw e;
+        } catch (final OccurrenceValidationException e) {
+            // con la lista de errores del esquema
+            throw e;
+        } catch (final Exception e) {
+            throw new GenericException(e.getMessage());
+        } finally {
+            if (Objects.isNull(marked)) {
+                this.pdfRepository.markSubmitted(idContext);
+            }
+            try {
+                warmUp.join();
+            } catch (final CompletionException e) {
+                log.warn("field configuration warm-up failed: {}", e.getCause().getMessage());
+            }
+        }
+    }
+
+    // espera la marca de envio y si ha fallado la reintenta, sin lanzar nada
+    private void awaitMark(final CompletableFuture<Integer> marked, final int idContext) {
+        try {
+            marked.join();
+            return;
+        } catch (final CompletionException e) {
+            log.warn("context {} could not be marked as submitted, retrying: {}", idContext, e.getCause().getMessage());
+        }
+        for (int attempt = 1; attempt <= MARK_RETRIES; attempt++) {
+            try {
+                this.pdfRepository.markSubmitted(idContext);
+                return;
+            } catch (final RuntimeException e) {
+                log.warn("attempt {} to mark context {} as submitted failed: {}", attempt, idContext, e.getMessage());
+            }
+        }
+        log.error("context {} was sent but could not be marked as submitted", idContext);
+    }
+
+    /*
+    igual que submitPdf pero sin bloquear: valida y devuelve el job, el resto se hace en
+    SubmissionJobExecutor. El estado se consulta con getSubmissionJob
+
+    el job solo esta en memoria, asi que submit_do se guarda cuando el proveedor ha respondido
+    bien y no antes: si el proceso se reinicia con el job en cola el pdf sigue sin enviar y se
+    puede volver a mandar
+     */
+    public SubmissionJob submitPdfAsync(
+            final PersonalDetails personaldetails,
+            final EccairsAuthUser user,
+            final int idContext,
+            final int responsibleEntityId,
+            final int reportingEntityId,
+            final boolean isPublic
+    ) {
+        this.checkSubmission(personaldetails, user, isPublic);
+        this.findPdf(idContext);
+        final SubmissionJob job = this.submissionJobExecutor.submit(
+                idContext,
+                () -> this.mountSubmission(
+                        this.findPdf(idContext),
+                        personaldetails,
+                        user,
+                        responsibleEntityId,
+                        reportingEntityId,
+                        isPublic),
+                this::sendOcurrence);
+        job.getResult().thenAccept(response -> {
+            if (response.getStatusCode().is2xxSuccessful()) {
+                try {
+                    this.pdfRepository.markSubmitted(idContext);
+                } catch (final RuntimeException e) {
+                    log.error("submission job {} sent but context {} could not be marked", job.getId(), idContext, e);
+                }
+            }
+        });
+        return job;
+    }
+
+    public SubmissionJob getSubmissionJob(final String jobId) {
+        final SubmissionJob job = this.submissionJobExecutor.getJob(jobId);
+        if (Objects.isNull(job)) {
+            throw new BadRequestException("submission job not found");
+        }
+        return job;
+    }
+
+    /*
+    importacion masiva: un zip con pdfs, que se lee entrada a entrada
+
+    cada pdf pasa por clasificar -> extraer -> estructura -> json en BatchImportExecutor y el
+    resultado de cada fichero se avisa a listener segun va terminando. listener se llama desde
+    el hilo que lee o desde los workers del pool, pero nunca desde dos hilos a la vez, asi que
+    no tiene que ser thread-safe
+     */
+    public List<BatchImportResult> importBatch(
+            final MultipartFile archive,
+            final PersonalDetails personaldetails,
+            final EccairsAuthUser user,
+            final int responsibleEntityId,
+            final int reportingEntityId,
+            final boolean isPublic,
+            final Consumer<BatchImportResult> listener
+    ) {
+        this.checkSubmission(personaldetails, user, isPublic);
+        final BatchImport batch = new BatchImport(listener);
+        try (final ZipInputStream zip = new ZipInputStream(archive.getInputStream())) {
+            for (ZipEntry entry = zip.getNextEntry(); Objects.nonNull(entry); entry = zip.getNextEntry()) {
+                if (!entry.isDirectory()) {
+                    this.importBatchEntry(batch, entry.getName(), zip,
+                            personaldetails, user, responsibleEntityId, reportingEntityId, isPublic);
+                }
+            }
+        } catch (final IOException e) {
+            throw new UploadFileException(e.getMessage());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GenericException(e.getMessage());
+        }
+        return batch.finish();
+    }
+
+    // igual que el zip, pero con los pdfs subidos en la misma peticion
+    public List<BatchImportResult> importBatch(
+            final MultipartFile[] uploadedFiles,
+            final PersonalDetails personaldetails,
+            final EccairsAuthUser user,
+            final int responsibleEntityId,
+            final int reportingEntityId,
+            final boolean isPublic,
+            final Consumer<BatchImportResult> listener
+    ) {
+        this.checkSubmission(personaldetails, user, isPublic);
+        final BatchImport batch = new BatchImport(listener);
+        try {
+            for (final MultipartFile file : uploadedFiles) {
+                try (final InputStream is = file.getInputStream()) {
+                    this.importBatchEntry(batch, file.getOriginalFilename(), is,
+                            personaldetails, user, responsibleEntityId, reportingEntityId, isPublic);
+                }
+            }
+        } catch (final IOException e) {
+            throw new UploadFileException(e.getMessage());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GenericException(e.getMessage());
+        }
+        return batch.finish();
+    }
+
+    private void importBatchEntry(
+            final BatchImport batch,
+            final String fileName,
+            final InputStream is,
+            final PersonalDetails personaldetails,
+            final EccairsAuthUser user,
+            final int responsibleEntityId,
+            final int reportingEntityId,
+            final boolean isPublic
+    ) throws IOException, InterruptedException {
+        if (StringUtils.isEmpty(fileName) || !this.getExtension(fileName).toUpperCase().equals(Constants.PDF)) {
+            batch.report(BatchImportResult.failed(fileName, "not a pdf file"));
+            return;
+        }
+        // el zip no se puede leer en paralelo, cada entrada se copia antes de pasarla al pool
+        final byte[] bytes;
+        try {
+            bytes = this.pdfParseLimits.readBounded(is);
+        } catch (final BadRequestException e) {
+            batch.report(BatchImportResult.failed(fileName, e.getMessage()));
+            return;
+        }
+        batch.track(this.batchImportExecutor.submit(() -> {
+            final String hash = ContentHashes.sha256(new ByteArrayInputStream(bytes));
+            ParseResult parsed = this.parseResultCache.get(hash);
+            if (Objects.isNull(parsed)) {
+                final PdfImportMetrics.Stage load = this.metrics.start("document.load");
+                try (final PdfParseLimits.Permit permit = this.pdfParseLimits.admit(PdfParseLimits.useOf(isPublic));
+                     final PdfParseSession session = this.pdfParserService.openSession(bytes)) {
+                    parsed = this.parse(session, load.stop(), hash);
+                }
+            }
+            return this.assemble(null, parsed, personaldetails, user, responsibleEntityId, reportingEntityId, isPublic);
+        }).handle((ocurrence, e) -> {
+            if (Objects.nonNull(e)) {
+                final Throwable cause = Objects.nonNull(e.getCause()) ? e.getCause() : e;
+                batch.report(BatchImportResult.failed(fileName, cause.getMessage()));
+            } else {
+                batch.add(fileName, ocurrence);
+            }
+            return null;
+        }));
+    }
+
+    /*
+    estado de una importacion masiva: las ocurrencias montadas se juntan en lotes de
+    batchImportExecutor.getBatchSize(). Cada ocurrencia del lote va en su propia llamada,
+    lanzadas a la vez en blockingIoExecutor ( en paralelo con hilos virtuales ) y el lote se
+    espera entero antes de seguir, asi no hay mas de un lote por worker contra el proveedor.
+    con un BulkOcurrencesProvider y batch.import.provider-bulk el lote va en una sola llamada.
+    Los pdfs del lote son todos nuevos, sin idContext, asi que nunca hay delta que mandar como update
+     */
+    private final class BatchImport {
+
+        private final Consumer<BatchImportResult> listener;
+
+        private final List<BatchImportResult> results = new ArrayList<>();
+
+        private final List<CompletableFuture<?>> pending = new ArrayList<>();
+
+        private final List<Map.Entry<String, MountedOcurrence>> ready = new ArrayList<>();
+
+        private BatchImport(final Consumer<BatchImportResult> listener) {
+            this.listener = listener;
+        }
+
+        private void track(final CompletableFuture<?> future) {
+            this.pending.add(future);
+        }
+
+        private void add(final String fileName, final MountedOcurrence ocurrence) {
+            List<Map.Entry<String, MountedOcurrence>> toSend = null;
+            synchronized (this) {
+                this.ready.add(new AbstractMap.SimpleImmutableEntry<>(fileName, ocurrence));
+                if (this.ready.size() >= ImportPdfServiceImpl.this.batchImportExecutor.getBatchSize()) {
+                    toSend = new ArrayList<>(this.ready);
+                    this.ready.clear();
+                }
+            }
+            if (Objects.nonNull(toSend)) {
+                this.send(toSend);
+            }
+        }
+
+        private void send(final List<Map.Entry<String, MountedOcurrence>> toSend) {
+            if (toSend.isEmpty()) {
+                return;
+            }
+            if (Objects.nonNull(ImportPdfServiceImpl.this.bulkOcurrencesProvider)) {
+                this.sendBulk(toSend);
+                return;
+            }
+            final List<CompletableFuture<Void>> sends = new ArrayList<>(toSend.size());
+            for (final Map.Entry<String, MountedOcurrence> m : toSend) {
+                sends.add(ImportPdfServiceImpl.this.blockingIoExecutor.fork(() -> {
+                    this.sendOne(m);
+                    return null;
+                }));
+            }
+            CompletableFuture.allOf(sends.toArray(new CompletableFuture[0])).join();
+        }
+
+        private void sendOne(final Map.Entry<String, MountedOcurrence> m) {
+            final PdfImportMetrics.Stage stage = ImportPdfServiceImpl.this.metrics.start("provider.call");
+            try {
+                final ResponseEntity<Object> response =
+                        ImportPdfServiceImpl.this.ocurrencesProvider.getCreateOcurrencesPublic(m.getValue().getOcurrence());
+                stage.record(m.getValue().getPdfType());
+                if (response.getStatusCode().is2xxSuccessful()) {
+                    this.report(BatchImportResult.sent(m.getKey(), response));
+                } else {
+                    this.report(BatchImportResult.failed(m.getKey(),
+                            "occurrence provider answered " + response.getStatusCode()));
+                }
+            } catch (final RuntimeException e) {
+                stage.failed(e);
+                this.report(BatchImportResult.failed(m.getKey(), e.getMessage()));
+            }
+        }
+
+        private void sendBulk(final List<Map.Entry<String, MountedOcurrence>> toSend) {
+            final List<byte[]> payloads = new ArrayList<>(toSend.size());
+            for (final Map.Entry<String, MountedOcurrence> m : toSend) {
+                payloads.add(m.getValue().getOcurrence());
+            }
+            final PdfImportMetrics.Stage stage = ImportPdfServiceImpl.this.metrics.start("provider.batch");
+            final ResponseEntity<List<Object>> response;
+            try {
+                response = ImportPdfServiceImpl.this.bulkOcurrencesProvider.getCreateOcurrencesPublic(payloads);
+                stage.record(null);
+            } catch (final Exception e) {
+                stage.failed(e);
+                for (final Map.Entry<String, MountedOcurrence> m : toSend) {
+                    this.report(BatchImportResult.failed(m.getKey(), e.getMessage()));
+                }
+                return;
+            }
+            // la respuesta tiene que traer una ocurrencia creada por cada una enviada, en el
+            // mismo orden; si no cuadra no se sabe cual se ha creado y no se reintenta ninguna
+            final List<Object> created = response.getBody();
+            if (!response.getStatusCode().is2xxSuccessful()
+                    || Objects.isNull(created)
+                    || created.size() != toSend.size()) {
+                for (final Map.Entry<String, MountedOcurrence> m : toSend) {
+                    this.report(BatchImportResult.failed(m.getKey(),
+                            "occurrence provider answered " + response.getStatusCode() + " with "
+                                    + (Objects.isNull(created) ? "no" : String.valueOf(created.size()))
+                                    + " occurrences to a batch of " + toSend.size()));
+                }
+                return;
+            }
+            for (int i = 0; i < toSend.size(); i++) {
+                this.report(BatchImportResult.sent(
+                        toSend.get(i).getKey(),
+                        ResponseEntity.status(response.getStatusCode()).body(created.get(i))));
+            }
+        }
+
+        // los resultados llegan desde varios workers, el listener se llama de uno en uno
+        private void report(final BatchImportResult result) {
+            synchronized (this.results) {
+                this.results.add(result);
+                if (Objects.nonNull(this.listener)) {
+                    this.listener.accept(result);
+                }
+            }
+        }
+
+        private List<BatchImportResult> finish() {
+            CompletableFuture.allOf(this.pending.toArray(new CompletableFuture[0])).join();
+            final List<Map.Entry<String, MountedOcurrence>> toSend;
+            synchronized (this) {
+                toSend = new ArrayList<>(this.ready);
+                this.ready.clear();
+            }
+            this.send(toSend);
+            synchronized (this.results) {
+                return new ArrayList<>(this.results);
+            }
+        }
+    }
+
+    private void checkSubmission(
+            final PersonalDetails personaldetails,
+            final EccairsAuthUser user,
+            final boolean isPublic
     ) {
         if (!isPublic) {
             if (Objects.isNull(user)) {
@@ -219,48 +972,217 @@ public class ImportPdfServiceImpl extends ImportPdfServiceBase implements Import
         if (!pdfParserService.personalDetailsOK(personaldetails)) {
             throw new BadPersonalDetailsException();
         }
-        Map<String, String> codeValueFormu = null;
-        final Optional<PdfModel> optional = this.pdfRepository.findById(idContext);
-        PdfModel pdfrepo = null;
-        try {
-            if (optional.isPresent()) {
-                pdfrepo = optional.get();
-                pdfrepo.setSubmit_do(true);
-                this.pdfRepository.save(pdfrepo);
-                this.pdfParserService.readPdf(pdfrepo);
+    }
+
+    private PdfModel findPdf(final Integer idContext) {
+        return this.pdfRepository.findById(idContext)
+                .orElseThrow(() -> new BadRequestException(Constants.ID_CONTEXT_NOT_FOUND));
+    }
+
+    /*
+    si ya se ha parseado un pdf con el mismo contenido ( mismo sha-256 ) se reutiliza
+    el tipo y los valores extraidos y no se abre con PDFBox
+     */
+    private MountedOcurrence mountSubmission(
+            final PdfModel pdfrepo,
+            final PersonalDetails personaldetails,
+            final EccairsAuthUser user,
+            final int responsibleEntityId,
+            final int reportingEntityId,
+            final boolean isPublic
+    ) throws IOException, SQLException {
+        // hash conocido sin leer el pdf, siempre de la fila: el del almacen de contenidos o el
+        // guardado al subir ( null en filas de antes de content_hash )
+        final String known = Objects.nonNull(pdfrepo.getFile_ref())
+                ? pdfrepo.getFile_ref()
+                : pdfrepo.getContent_hash();
+        ParseResult parsed = null;
+        if (Objects.nonNull(known)) {
+            parsed = this.parseResultCache.get(known);
+            if (Objects.isNull(parsed)) {
+                // el parseo adelantado al subir puede estar todavia en marcha
+                parsed = this.parseResultCache.awaitPending(known);
             }
-            final String filename = pdfrepo.getName_file();
-            final String pdfType = this.pdfParserService.getPdfType(filename);
-            if (null == pdfType) {
-                throw new BadRequestException(Constants.NOT_OF_6_PDF_TYPES);
+        }
+        if (Objects.isNull(parsed)) {
+            // hueco de su clase: los envios publicos, tambien los asincronos, no agotan los del resto
+            try (final PdfParseLimits.Permit permit = this.pdfParseLimits.admit(PdfParseLimits.useOf(isPublic))) {
+                final PdfImportMetrics.Stage load = this.metrics.start("document.load");
+                final PdfParseSession session;
+                try {
+                    session = this.openSession(pdfrepo);
+                } catch (final IOException | SQLException | RuntimeException e) {
+                    load.failed(e);
+                    throw e;
+                }
+                try {
+                    // se guarda con el hash de los bytes que se han parseado, no con el del contexto
+                    final String hash = Objects.nonNull(session.getContentHash()) ? session.getContentHash() : known;
+                    parsed = this.parse(session, load.stop(), hash);
+                } finally {
+                    session.close();
+                }
             }
-            codeValueFormu = this.pdfParserService.getMapCodeValueIDForm(pdfrepo.getName_file(), pdfType);
-            final HashMap<String, String> res = new HashMap<String, String>();
-//            this.sendMail(personaldetails, user);
+        }
+        return this.assemble(pdfrepo.getId(), parsed, personaldetails, user, responsibleEntityId, reportingEntityId, isPublic);
+    }
 
-            final Map<String, String> hierarchy = this.pdfParserService.getMapCodeHierarchy(pdfType);
-            final TaxNode structure = this.pdfParserService.getStructure(codeValueFormu, hierarchy, Constants.JSON_ROOT, pdfType);
+    private PdfParseSession openSession(final PdfModel pdfrepo) throws IOException, SQLException {
+        if (Objects.nonNull(pdfrepo.getFile_ref())) {
+            if (Objects.isNull(this.pdfContentStore)) {
+                throw new GenericException("pdf " + pdfrepo.getId() + " is in the content store but no store is configured");
+            }
+            return this.pdfParserService.openSession(this.pdfContentStore.file(pdfrepo.getFile_ref()));
+        }
+        return this.pdfParserService.openSession(pdfrepo);
+    }
 
+    private InputStream openContent(final PdfModel pdfrepo) throws IOException, SQLException {
+        if (Objects.nonNull(pdfrepo.getFile_ref()) && Objects.nonNull(this.pdfContentStore)) {
+            return this.pdfContentStore.open(pdfrepo.getFile_ref());
+        }
+        return pdfrepo.getFile().getBinaryStream();
+    }
 
-            Map map = this.pdfParserService.mountOcurrences(
-                    codeValueFormu,
+    // clasifica y extrae los valores, y lo guarda en la cache por contenido
+    private ParseResult parse(
+            final PdfParseSession session,
+            final PdfImportMetrics.Stage load,
+            final String hash
+    ) {
+        PdfImportMetrics.Stage stage = this.metrics.start("classification");
+        final String pdfType = this.pdfParserService.getPdfType(session);
+        stage.record(pdfType);
+        load.record(pdfType);
+        if (null == pdfType) {
+            this.metrics.failure("classification", new BadRequestException(Constants.NOT_OF_6_PDF_TYPES));
+            throw new BadRequestException(Constants.NOT_OF_6_PDF_TYPES);
+        }
+        stage = this.metrics.start("extraction");
+        try {
+            final Map<String, String> codeValueFormu = this.pdfParserService.getMapCodeValueIDForm(session, pdfType);
+            stage.record(pdfType);
+            return this.parseResultCache.put(hash, pdfType, codeValueFormu);
+        } catch (final RuntimeException e) {
+            stage.failed(e);
+            throw e;
+        }
+    }
+
+    /*
+    monta la estructura, devuelve la ocurrencia ya en json y la valida contra el esquema.
+    si el contexto ya se envio con el mismo tipo y cabecera se monta tambien el delta
+     */
+    private MountedOcurrence assemble(
+            final Integer idContext,
+            final ParseResult parsed,
+            final PersonalDetails personaldetails,
+            final EccairsAuthUser user,
+            final int responsibleEntityId,
+            final int reportingEntityId,
+            final boolean isPublic
+    ) throws IOException {
+        final String pdfType = parsed.getPdfType();
+        this.metrics.submission(pdfType);
+        PdfImportMetrics.Stage stage = this.metrics.start("structure");
+        try {
+//            this.sendMail(personaldetails, user);
+            final TaxNode structure = this.pdfParserService.getStructure(parsed.getCodeValues(), pdfType);
+            stage.record(pdfType);
+
+            stage = this.metrics.start("json.mount");
+            final byte[] ocurrence = this.pdfParserService.mountOcurrencesJson(
                     personaldetails,
-                    idContext,
                     user,
                     responsibleEntityId,
                     reportingEntityId,
-                    pdfType,
-                    filename,
-                    "1",
                     structure,
                     isPublic);
+            stage.record(pdfType);
 
+            if (this.occurrenceSchemaValidator.isEnabled()) {
+                stage = this.metrics.start("schema.validation");
+                this.occurrenceSchemaValidator.check(ocurrence);
+                stage.record(pdfType);
+            }
 
-            return this.ocurrencesProvider.getCreateOcurrencesPublic(map);
-        } catch (final BadRequestException e) {
-            throw new BadRequestException(e.getMessage());
-        } catch (final Exception e) {
-            throw new GenericException(e.getMessage());
+            final String envelope = this.envelope(personaldetails, user, responsibleEntityId, reportingEntityId, isPublic);
+            final MountedOcurrence mounted = new MountedOcurrence(
+                    pdfType, parsed.getCodeValues(), ocurrence, idContext, envelope, null);
+            final SubmissionHistory.Submitted previous = this.submissionHistory.previous(idContext, pdfType, envelope);
+            if (Objects.isNull(previous)) {
+                return mounted;
+            }
+            final Map<String, String> changed = SubmissionHistory.diff(previous.getCodeValues(), parsed.getCodeValues());
+            if (Objects.isNull(changed)) {
+                // se ha vaciado o quitado algun campo: la ocurrencia entera como update de la anterior,
+                // no como una ocurrencia nueva
+                return mounted.withDelta(new SubmissionHistory.Delta(previous, ocurrence));
+            }
+            if (changed.isEmpty()) {
+                return mounted.withDelta(new SubmissionHistory.Delta(previous, null));
+            }
+            stage = this.metrics.start("json.delta");
+            final byte[] delta = this.pdfParserService.mountOcurrencesJson(
+                    personaldetails,
+                    user,
+                    responsibleEntityId,
+                    reportingEntityId,
+                    this.pdfParserService.getStructure(changed, pdfType),
+                    isPublic);
+            stage.record(pdfType);
+            return mounted.withDelta(new SubmissionHistory.Delta(previous, delta));
+        } catch (final IOException | RuntimeException e) {
+            stage.failed(e);
+            throw e;
+        }
+    }
+
+    // lo que cambia la cabecera de la ocurrencia: con otra cabecera no se manda delta
+    private String envelope(
+            final PersonalDetails personaldetails,
+            final EccairsAuthUser user,
+            final int responsibleEntityId,
+            final int reportingEntityId,
+            final boolean isPublic
+    ) {
+        final String who = isPublic
+                ? personaldetails.getUsername() + '|' + personaldetails.getEmail() + '|' + personaldetails.getTelephone()
+                : user.getUser().getUsername();
+        return responsibleEntityId + "|" + reportingEntityId + '|' + isPublic + '|' + who;
+    }
+
+    /*
+    un reenvio con delta va como update de la ocurrencia anterior, o no se manda si no ha
+    cambiado nada. Los envios correctos se apuntan en SubmissionHistory
+     */
+    private ResponseEntity<Object> sendOcurrence(final MountedOcurrence mounted) {
+        final PdfImportMetrics.Stage stage = this.metrics.start("provider.call");
+        try {
+            final SubmissionHistory.Delta delta = mounted.getDelta();
+            final ResponseEntity<Object> response;
+            if (Objects.isNull(delta)) {
+                response = this.ocurrencesProvider.getCreateOcurrencesPublic(mounted.getOcurrence());
+            } else if (delta.isEmpty()) {
+                response = ResponseEntity.status(delta.getPreviousStatus()).body(delta.getPreviousBody());
+            } else {
+                response = this.ocurrencesProvider.getUpdateOcurrencesPublic(delta.getOcurrenceId(), delta.getOcurrence());
+            }
+            stage.record(mounted.getPdfType());
+            if (response.getStatusCode().is2xxSuccessful()) {
+                if (Objects.isNull(delta)) {
+                    this.submissionHistory.record(mounted.getIdContext(), mounted,
+                            SubmissionHistory.ocurrenceId(response.getBody()), response.getStatusCodeValue(), response.getBody());
+                } else {
+                    // el cuerpo y el status del envio que creo la ocurrencia
+                    this.submissionHistory.record(mounted.getIdContext(), mounted,
+                            delta.getOcurrenceId(), delta.getPreviousStatus(), delta.getPreviousBody());
+                }
+            }
+            return response;
+        } catch (final RuntimeException e) {
+            stage.failed(e);
+            throw e;
         }
     }
 }
@@ -0,0 +1,45 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import org.easa.eccairs.importpdf.core.provider.OcurrencesProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import javax.sql.DataSource;
+
+/*
+perfil loadtest: la prueba de carga ( SubmissionReplayer ) sin tocar nada real
+
+- base de datos H2 en memoria, el esquema lo crea hibernate ( application-loadtest.properties )
+  y los datos LoadTestSeed
+- proveedor de ocurrencias LoadTestOcurrencesProvider con latencia configurable:
+  loadtest.provider.latency-millis y loadtest.provider.jitter-millis
+
+los dos son @Primary, ganan a la base de datos y al proveedor de la configuracion normal
+ */
+@Configuration
+@Profile("loadtest")
+public class LoadTestConfiguration {
+
+    @Bean
+    @Primary
+    public DataSource loadTestDataSource() {
+        return new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .build();
+    }
+
+    @Bean
+    @Primary
+    public OcurrencesProvider loadTestOcurrencesProvider(
+            @Value("${loadtest.provider.latency-millis:200}") long latencyMillis,
+            @Value("${loadtest.provider.jitter-millis:100}") long jitterMillis
+    ) {
+        return new LoadTestOcurrencesProvider(latencyMillis, jitterMillis);
+    }
+}
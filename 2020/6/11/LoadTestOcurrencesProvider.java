@@ -0,0 +1,59 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import org.easa.eccairs.importpdf.core.provider.OcurrencesProvider;
+import org.springframework.http.ResponseEntity;
+
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+proveedor de ocurrencias de mentira para la prueba de carga ( perfil loadtest )
+
+no llama a nadie: espera latency-millis ( mas un extra al azar de hasta jitter-millis ) y
+contesta 200 con { "id": n } como el de verdad. Asi se mide el servicio con un proveedor
+lento o rapido sin crear ocurrencias reales
+ */
+public class LoadTestOcurrencesProvider implements OcurrencesProvider {
+
+    private final long latencyMillis;
+
+    private final long jitterMillis;
+
+    private final AtomicLong ids = new AtomicLong();
+
+    public LoadTestOcurrencesProvider(final long latencyMillis, final long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    @Override
+    public ResponseEntity<Object> getCreateOcurrencesPublic(final byte[] ocurrence) {
+        this.pause();
+        return ResponseEntity.ok(this.created());
+    }
+
+    @Override
+    public ResponseEntity<Object> getUpdateOcurrencesPublic(final Object id, final byte[] ocurrence) {
+        this.pause();
+        return ResponseEntity.ok(Collections.singletonMap("id", id));
+    }
+
+    private Object created() {
+        return Collections.singletonMap("id", this.ids.incrementAndGet());
+    }
+
+    private void pause() {
+        final long millis = this.latencyMillis
+                + (this.jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(this.jitterMillis + 1) : 0L);
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.easa.eccairs.importpdf.benchmark.SyntheticForms;
+import org.easa.eccairs.importpdf.data.repository.AttributeRepository;
+import org.easa.eccairs.importpdf.data.repository.PdfFieldConfRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/*
+datos de la base de datos embebida del perfil loadtest, antes de que arranque SubmissionReplayer
+
+- con ${loadtest.seed.export} ( un .sql con los INSERT de attribute y pdf_field_conf sacados
+  de la base de datos real ) se carga esa configuracion: es la que hace falta para reproducir
+  un corpus grabado en produccion
+- sin export se carga la configuracion de SyntheticForms y, si la carpeta del corpus esta
+  vacia, se escribe en ella un pdf sintetico por tipo ( envios publicos ), asi la prueba
+  funciona sin nada de fuera
+
+al acabar se recarga FieldConfCache, que puede haberse cargado vacia al arrancar
+ */
+@Slf4j
+@Component
+@Profile("loadtest")
+@Order(0)
+public class LoadTestSeed implements ApplicationRunner {
+
+    private final DataSource dataSource;
+
+    private final AttributeRepository attributeRepository;
+
+    private final PdfFieldConfRepository pdfFieldConfRepository;
+
+    private final FieldConfCache fieldConfCache;
+
+    private final String export;
+
+    private final String folder;
+
+    public LoadTestSeed(
+            DataSource dataSource,
+            AttributeRepository attributeRepository,
+            PdfFieldConfRepository pdfFieldConfRepository,
+            FieldConfCache fieldConfCache,
+            @Value("${loadtest.seed.export:}") String export,
+            @Value("${loadtest.replay.folder:${submission.recorder.folder:${user.home}/.importpdf/corpus}}") String folder
+    ) {
+        this.dataSource = dataSource;
+        this.attributeRepository = attributeRepository;
+        this.pdfFieldConfRepository = pdfFieldConfRepository;
+        this.fieldConfCache = fieldConfCache;
+        this.export = export;
+        this.folder = folder;
+    }
+
+    @Override
+    public void run(final ApplicationArguments args) throws Exception {
+        if (StringUtils.hasText(this.export)) {
+            new ResourceDatabasePopulator(new FileSystemResource(this.export)).execute(this.dataSource);
+            log.info("load test: configuration loaded from {}", this.export);
+        } else {
+            this.attributeRepository.saveAll(SyntheticForms.attributes());
+            this.pdfFieldConfRepository.saveAll(SyntheticForms.pdfFieldConfs());
+            log.info("load test: synthetic configuration loaded");
+            this.writeSyntheticCorpus(Paths.get(this.folder));
+        }
+        this.fieldConfCache.refresh();
+    }
+
+    private void writeSyntheticCorpus(final Path corpus) throws Exception {
+        final Path logFile = corpus.resolve(SubmissionRecorder.LOG_FILE);
+        if (Files.exists(logFile)) {
+            return;
+        }
+        Files.createDirectories(corpus);
+        final StringBuilder lines = new StringBuilder();
+        for (final SyntheticForms.Type type : SyntheticForms.Type.values()) {
+            final byte[] pdf = SyntheticForms.pdf(type);
+            final String hash = ContentHashes.sha256(new ByteArrayInputStream(pdf));
+            Files.write(corpus.resolve(hash + ".pdf"), pdf);
+            lines.append(hash).append(";true;1;1\n");
+        }
+        Files.write(logFile, lines.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW);
+        log.info("load test: synthetic corpus written to {}", corpus);
+    }
+}
@@ -0,0 +1,69 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import java.util.Map;
+
+/*
+resultado de procesar un pdf: el tipo, los valores extraidos ( campo pdf -> valor )
+y la ocurrencia ya en json lista para mandar
+
+idContext es null en las importaciones masivas. Si es un reenvio de un contexto ya enviado
+delta lleva solo lo que ha cambiado ( ver SubmissionHistory )
+ */
+public class MountedOcurrence {
+
+    private final String pdfType;
+
+    private final Map<String, String> codeValues;
+
+    private final byte[] ocurrence;
+
+    private final Integer idContext;
+
+    private final String envelope;
+
+    private final SubmissionHistory.Delta delta;
+
+    MountedOcurrence(
+            final String pdfType,
+            final Map<String, String> codeValues,
+            final byte[] ocurrence,
+            final Integer idContext,
+            final String envelope,
+            final SubmissionHistory.Delta delta
+    ) {
+        this.pdfType = pdfType;
+        this.codeValues = codeValues;
+        this.ocurrence = ocurrence;
+        this.idContext = idContext;
+        this.envelope = envelope;
+        this.delta = delta;
+    }
+
+    MountedOcurrence withDelta(final SubmissionHistory.Delta delta) {
+        return new MountedOcurrence(this.pdfType, this.codeValues, this.ocurrence, this.idContext, this.envelope, delta);
+    }
+
+    public String getPdfType() {
+        return this.pdfType;
+    }
+
+    public Map<String, String> getCodeValues() {
+        return this.codeValues;
+    }
+
+    public byte[] getOcurrence() {
+        return this.ocurrence;
+    }
+
+    public Integer getIdContext() {
+        return this.idContext;
+    }
+
+    public String getEnvelope() {
+        return this.envelope;
+    }
+
+    public SubmissionHistory.Delta getDelta() {
+        return this.delta;
+    }
+}
@@ -0,0 +1,125 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.easa.eccairs.auth.client.EccairsAuthUser;
+import org.easa.eccairs.importpdf.core.dto.PersonalDetails;
+import org.easa.eccairs.importpdf.util.Constants;
+import org.easa.eccairs.importpdf.util.TaxNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/*
+escribe la ocurrencia directamente desde el TaxNode al flujo de salida,
+con la misma forma que mountOcurrences / mountJson pero sin montar los HashMap intermedios
+ */
+public final class OccurrenceJsonWriter {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private OccurrenceJsonWriter() {
+    }
+
+    public static byte[] write(
+            final PersonalDetails personaldetails,
+            final EccairsAuthUser user,
+            final Integer responsibleEntityId,
+            final Integer reportingEntityId,
+            final TaxNode structure,
+            final boolean isPublic,
+            final TaxonomyRegistry taxonomy
+    ) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+        write(out, personaldetails, user, responsibleEntityId, reportingEntityId, structure, isPublic, taxonomy);
+        return out.toByteArray();
+    }
+
+    public static void write(
+            final OutputStream out,
+            final PersonalDetails personaldetails,
+            final EccairsAuthUser user,
+            final Integer responsibleEntityId,
+            final Integer reportingEntityId,
+            final TaxNode structure,
+            final boolean isPublic,
+            final TaxonomyRegistry taxonomy
+    ) throws IOException {
+        try (final JsonGenerator gen = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            gen.writeStartObject();
+            gen.writeStringField("type", Constants.JSON_REPORT_TYPE_OC);
+            writeNumberField(gen, "reportingEntityId", reportingEntityId);
+            gen.writeStringField("status", "DRAFT");
+            writeNumberField(gen, "responsibleEntityId", responsibleEntityId);
+
+            gen.writeObjectFieldStart("personalDetails");
+            if (isPublic) {
+                gen.writeStringField("firstName", personaldetails.getFirstName());
+                gen.writeStringField("lastName", personaldetails.getLastName());
+                gen.writeStringField("username", personaldetails.getUsername());
+                gen.writeStringField("telephone", personaldetails.getTelephone());
+                gen.writeStringField("email", personaldetails.getEmail());
+            } else {
+                gen.writeStringField("firstName", user.getUser().getFirstName());
+                gen.writeStringField("lastName", user.getUser().getLastName());
+                gen.writeStringField("username", user.getUser().getUsername());
+                gen.writeStringField("telephone", user.getUser().getPhone());
+                gen.writeStringField("email", user.getUser().getEmail());
+            }
+            gen.writeEndObject();
+
+            gen.writeObjectFieldStart("eccairsUser");
+            gen.writeEndObject();
+
+            gen.writeObjectFieldStart(Constants.TAXONOMY_CODE);
+            gen.writeFieldName(Constants.TAXONOMY_ROOT);
+            writeNode(gen, structure, Constants.TAXONOMY_ROOT, taxonomy);
+            gen.writeEndObject();
+
+            gen.writeEndObject();
+        }
+    }
+
+    private static void writeNode(
+            final JsonGenerator gen,
+            final TaxNode structure,
+            final String id,
+            final TaxonomyRegistry taxonomy
+    ) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField(Constants.JSON_PDF_ID, taxonomy.entityId(id));
+
+        gen.writeObjectFieldStart(Constants.JSON_PDF_ATTRIBUTES);
+        for (final Map.Entry<String, String> m : structure.attr.entrySet()) {
+            if (!"".equals(m.getValue())) {
+                gen.writeStringField(m.getKey(), m.getValue());
+            }
+        }
+        gen.writeEndObject();
+
+        if (!structure.childs.isEmpty()) {
+            gen.writeObjectFieldStart(Constants.JSON_PDF_ENTITIES);
+            for (final Map.Entry<String, TaxNode> m : structure.childs.entrySet()) {
+                gen.writeFieldName(m.getKey());
+                writeNode(gen, m.getValue(), m.getKey(), taxonomy);
+            }
+            gen.writeEndObject();
+        }
+        gen.writeEndObject();
+    }
+
+    private static void writeNumberField(
+            final JsonGenerator gen,
+            final String name,
+            final Integer value
+    ) throws IOException {
+        if (value == null) {
+            gen.writeNullField(name);
+        } else {
+            gen.writeNumberField(name, value);
+        }
+    }
+}
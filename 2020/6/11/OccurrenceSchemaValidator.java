@@ -0,0 +1,117 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.networknt.schema.JsonSchema;
+import com.networknt.schema.JsonSchemaFactory;
+import com.networknt.schema.SpecVersion;
+import com.networknt.schema.ValidationMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.easa.eccairs.importpdf.core.exception.OccurrenceValidationException;
+import org.easa.eccairs.importpdf.util.Constants;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/*
+valida la ocurrencia en local antes de mandarla al proveedor
+
+el esquema ( draft-07 ) se compila una sola vez al arrancar. ${occurrence.schema.pointer}
+elige el subesquema que corresponde a la ocurrencia dentro del fichero, porque
+json_schema_ocurrence.json describe la respuesta completa del proveedor ( data / errorDetails /
+returnCode ) y la ocurrencia es "data".
+
+ojo: ese esquema esta generado a partir de un ejemplo de ocurrencia ya guardada ( pide e2Id,
+creationDate..., valores numericos ), por eso la validacion va desactivada por defecto
+( occurrence.schema.enabled ) hasta tener un esquema del borrador que se envia. Desactivada no
+hace nada, ni siquiera leer la ocurrencia ( el envio no llama a check() )
+
+check() lanza OccurrenceValidationException con un error por regla incumplida ( ruta, codigo
+del atributo, palabra clave y mensaje ), los primeros MAX_REPORTED_ERRORS
+ */
+@Slf4j
+@Component
+public class OccurrenceSchemaValidator {
+
+    private static final int MAX_REPORTED_ERRORS = 20;
+
+    private static final String ATTRIBUTES = "." + Constants.JSON_PDF_ATTRIBUTES + ".";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final boolean enabled;
+
+    private final JsonSchema schema;
+
+    public OccurrenceSchemaValidator(
+            @Value("${occurrence.schema.enabled:false}") boolean enabled,
+            @Value("${occurrence.schema.location:classpath:json_schema_ocurrence.json}") Resource location,
+            @Value("${occurrence.schema.pointer:/properties/data}") String pointer
+    ) throws IOException {
+        this.enabled = enabled;
+        if (!enabled) {
+            this.schema = null;
+            return;
+        }
+        final JsonNode root;
+        try (final InputStream is = location.getInputStream()) {
+            root = this.objectMapper.readTree(is);
+        }
+        final JsonNode schemaNode = pointer.isEmpty() ? root : root.at(pointer);
+        if (schemaNode.isMissingNode()) {
+            throw new IllegalStateException("occurrence schema pointer " + pointer + " not found in " + location);
+        }
+        this.schema = JsonSchemaFactory.getInstance(SpecVersion.VersionFlag.V7).getSchema(schemaNode);
+        log.info("occurrence schema compiled from {}{}", location, pointer);
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    // errores ordenados por ruta ( $.rowsTaxCodes.24.ATTRIBUTES.454 ... ), vacio si es valida
+    public List<ValidationMessage> validate(final byte[] ocurrence) throws IOException {
+        if (Objects.isNull(this.schema)) {
+            return Collections.emptyList();
+        }
+        final Set<ValidationMessage> errors = this.schema.validate(this.objectMapper.readTree(ocurrence));
+        final List<ValidationMessage> sorted = new ArrayList<>(errors);
+        sorted.sort((a, b) -> a.getPath().compareTo(b.getPath()));
+        return sorted;
+    }
+
+    public void check(final byte[] ocurrence) throws IOException {
+        final List<ValidationMessage> errors = this.validate(ocurrence);
+        if (!errors.isEmpty()) {
+            throw new OccurrenceValidationException("occurrence is not valid (" + errors.size() + " errors)",
+                    errors.stream()
+                            .limit(MAX_REPORTED_ERRORS)
+                            .map(e -> new OccurrenceValidationException.Error(
+                                    e.getPath(), attributeOf(e.getPath()), e.getType(), e.getMessage()))
+                            .collect(Collectors.toList()));
+        }
+    }
+
+    // $.rowsTaxCodes.24.ATTRIBUTES.454.content -> 454
+    static String attributeOf(final String path) {
+        final int i = Objects.isNull(path) ? -1 : path.lastIndexOf(ATTRIBUTES);
+        if (i < 0) {
+            return null;
+        }
+        final int start = i + ATTRIBUTES.length();
+        int end = start;
+        while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[') {
+            end++;
+        }
+        return end > start ? path.substring(start, end) : null;
+    }
+}
@@ -0,0 +1,66 @@
+package org.easa.eccairs.importpdf.core.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.util.Collections;
+import java.util.List;
+
+/*
+400: la ocurrencia montada no cumple el esquema ( OccurrenceSchemaValidator ), no se ha enviado
+al proveedor
+
+getErrors() lleva un error por regla incumplida ( ruta, atributo, palabra clave del esquema y
+mensaje ) para que el manejador de errores lo devuelva en su dto, no en una sola cadena
+ */
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class OccurrenceValidationException extends RuntimeException {
+
+    private final List<Error> errors;
+
+    public OccurrenceValidationException(final String message, final List<Error> errors) {
+        super(message);
+        this.errors = Collections.unmodifiableList(errors);
+    }
+
+    public List<Error> getErrors() {
+        return this.errors;
+    }
+
+    public static final class Error {
+
+        // $.rowsTaxCodes.24.ATTRIBUTES.454 ...
+        private final String path;
+
+        // codigo del atributo de la ruta, null si el error no es de un atributo
+        private final String attribute;
+
+        // required, type, enum ...
+        private final String keyword;
+
+        private final String message;
+
+        public Error(final String path, final String attribute, final String keyword, final String message) {
+            this.path = path;
+            this.attribute = attribute;
+            this.keyword = keyword;
+            this.message = message;
+        }
+
+        public String getPath() {
+            return this.path;
+        }
+
+        public String getAttribute() {
+            return this.attribute;
+        }
+
+        public String getKeyword() {
+            return this.keyword;
+        }
+
+        public String getMessage() {
+            return this.message;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+resultados de parseo por contenido del pdf ( sha-256 )
+
+si se vuelve a enviar exactamente el mismo fichero ( reintento, error de validacion... )
+se reutiliza el tipo y los valores extraidos y no se vuelve a abrir con PDFBox.
+
+el hash de cada idContext no se guarda aqui sino en su fila ( PdfModel.content_hash ), asi
+vale en todos los nodos y despues de reiniciar.
+la cache es LRU acotada a ${parse.cache.max-entries}.
+un resultado extraido con otra carga de la configuracion de campos o con otra taxonomia
+( TaxonomyRegistry.getRevision() ) no vale
+
+pending son los parseos adelantados al subir que todavia no han terminado. El envio solo
+espera al que ya esta en marcha ( no a uno que sigue en la cola ) y como mucho
+${parse.cache.await-pending-millis}, si no lo parsea el mismo
+ */
+@Component
+public class ParseResultCache {
+
+    private final Map<String, ParseResult> results;
+
+    private final Map<String, CompletableFuture<ParseResult>> pending = new ConcurrentHashMap<>();
+
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+
+    private final long awaitPendingMillis;
+
+    private final FieldConfCache fieldConfCache;
+
+    private final TaxonomyRegistry taxonomyRegistry;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    public ParseResultCache(
+            FieldConfCache fieldConfCache,
+            TaxonomyRegistry taxonomyRegistry,
+            @Value("${parse.cache.max-entries:1000}") int maxEntries,
+            @Value("${parse.cache.await-pending-millis:2000}") long awaitPendingMillis
+    ) {
+        this.fieldConfCache = fieldConfCache;
+        this.taxonomyRegistry = taxonomyRegistry;
+        this.awaitPendingMillis = awaitPendingMillis;
+        this.results = Collections.synchronizedMap(lru(maxEntries));
+    }
+
+    private static <K, V> Map<K, V> lru(final int maxEntries) {
+        return new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+                return this.size() > maxEntries;
+            }
+        };
+    }
+
+    public ParseResult get(final String hash) {
+        final ParseResult result = this.results.get(hash);
+        if (this.isCurrent(result)) {
+            this.hits.incrementAndGet();
+            return result;
+        }
+        this.misses.incrementAndGet();
+        return null;
+    }
+
+    public ParseResult put(final String hash, final String pdfType, final Map<String, String> codeValues) {
+        final ParseResult result = new ParseResult(pdfType, codeValues,
+                this.fieldConfCache.getLoads(), this.taxonomyRegistry.getRevision());
+        this.results.put(hash, result);
+        return result;
+    }
+
+    // sin contar acierto / fallo
+    public boolean contains(final String hash) {
+        final ParseResult result = this.results.get(hash);
+        return this.isCurrent(result);
+    }
+
+    private boolean isCurrent(final ParseResult result) {
+        return Objects.nonNull(result)
+                && result.taxonomyRevision == this.taxonomyRegistry.getRevision()
+                && result.confLoad == this.fieldConfCache.getLoads();
+    }
+
+    // false si ya hay un parseo en marcha para ese contenido
+    public boolean startPending(final String hash, final CompletableFuture<ParseResult> future) {
+        return Objects.isNull(this.pending.putIfAbsent(hash, future));
+    }
+
+    // el parseo adelantado ha salido de la cola y esta leyendo el pdf
+    public void runningPending(final String hash) {
+        if (this.pending.containsKey(hash)) {
+            this.running.add(hash);
+        }
+    }
+
+    public void endPending(final String hash, final CompletableFuture<ParseResult> future) {
+        if (this.pending.remove(hash, future)) {
+            this.running.remove(hash);
+        }
+    }
+
+    public boolean isPending(final String hash) {
+        return this.pending.containsKey(hash);
+    }
+
+    /*
+    espera al parseo adelantado de ese contenido si ya esta en marcha, null si no hay, si sigue
+    en la cola, si ha fallado o si no acaba a tiempo ( el envio lo parsea entonces y el error
+    sale por el camino normal )
+     */
+    public ParseResult awaitPending(final String hash) {
+        final CompletableFuture<ParseResult> future = this.pending.get(hash);
+        if (Objects.isNull(future) || !this.running.contains(hash)) {
+            return null;
+        }
+        try {
+            return future.get(this.awaitPendingMillis, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (final ExecutionException | TimeoutException | CancellationException e) {
+            return null;
+        }
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    public static final class ParseResult {
+
+        private final String pdfType;
+
+        private final Map<String, String> codeValues;
+
+        private final long confLoad;
+
+        private final long taxonomyRevision;
+
+        private ParseResult(final String pdfType, final Map<String, String> codeValues,
+                            final long confLoad, final long taxonomyRevision) {
+            this.pdfType = pdfType;
+            this.codeValues = Collections.unmodifiableMap(codeValues);
+            this.confLoad = confLoad;
+            this.taxonomyRevision = taxonomyRevision;
+        }
+
+        public String getPdfType() {
+            return this.pdfType;
+        }
+
+        public Map<String, String> getCodeValues() {
+            return this.codeValues;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.easa.eccairs.importpdf.data.model.PdfModel;
+import org.easa.eccairs.importpdf.data.repository.PdfRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.InputStream;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+pasa los pdfs que todavia estan como Blob en la base de datos al PdfContentStore
+
+va por paginas, cada una en su transaccion ( TransactionTemplate ): el Blob solo se puede leer
+en streaming con la conexion abierta. Cada pdf se copia, se guarda la referencia y se vacia el
+Blob. Si falla el commit de una pagina se queda como estaba ( lo ya copiado al store lo borra
+PdfContentSweeper ) y se para la migracion.
+se puede lanzar varias veces, los ya migrados se saltan
+
+con pdf.content-store.migrate-on-startup=true se lanza al arrancar, en un hilo aparte para no
+retrasar el arranque; si no, se llama a migrateBlobs() a mano
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "pdf.content-store.type", havingValue = "file")
+public class PdfContentMigration implements ApplicationRunner {
+
+    private static final int PAGE_SIZE = 50;
+
+    private final PdfRepository pdfRepository;
+
+    private final PdfContentStore pdfContentStore;
+
+    private final TransactionTemplate transaction;
+
+    private final boolean migrateOnStartup;
+
+    // una migracion a la vez; ReentrantLock y no synchronized porque dentro hay JDBC
+    private final ReentrantLock running = new ReentrantLock();
+
+    public PdfContentMigration(
+            PdfRepository pdfRepository,
+            PdfContentStore pdfContentStore,
+            PlatformTransactionManager transactionManager,
+            @Value("${pdf.content-store.migrate-on-startup:false}") boolean migrateOnStartup
+    ) {
+        this.pdfRepository = pdfRepository;
+        this.pdfContentStore = pdfContentStore;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.migrateOnStartup = migrateOnStartup;
+    }
+
+    @Override
+    public void run(final ApplicationArguments args) {
+        if (!this.migrateOnStartup) {
+            return;
+        }
+        final Thread thread = new Thread(this::migrateBlobs, "pdf-content-migration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int migrateBlobs() {
+        this.running.lock();
+        try {
+            return this.migrateAll();
+        } finally {
+            this.running.unlock();
+        }
+    }
+
+    private int migrateAll() {
+        int migrated = 0, failed = 0;
+        // por id: las paginas no se mueven aunque se actualicen las filas
+        PageRequest pageable = PageRequest.of(0, PAGE_SIZE, Sort.by("id"));
+        while (true) {
+            final PageRequest current = pageable;
+            final Batch batch;
+            try {
+                batch = this.transaction.execute(status -> this.migratePage(current));
+            } catch (final RuntimeException e) {
+                // la base de datos falla: se para, se puede volver a lanzar
+                log.error("error migrating page {} of pdfs to the content store", current.getPageNumber(), e);
+                break;
+            }
+            migrated += batch.migrated;
+            failed += batch.failed;
+            if (!batch.hasNext) {
+                break;
+            }
+            pageable = current.next();
+        }
+        log.info("pdf content migration: {} migrated, {} failed", migrated, failed);
+        return migrated;
+    }
+
+    private Batch migratePage(final PageRequest pageable) {
+        final Page<PdfModel> page = this.pdfRepository.findAll(pageable);
+        final Batch batch = new Batch(page.hasNext());
+        for (final PdfModel pdfrepo : page.getContent()) {
+            if (Objects.isNull(pdfrepo.getFile()) || Objects.nonNull(pdfrepo.getFile_ref())) {
+                continue;
+            }
+            try (final InputStream is = pdfrepo.getFile().getBinaryStream()) {
+                pdfrepo.setFile_ref(this.pdfContentStore.put(is));
+                pdfrepo.setContent_hash(pdfrepo.getFile_ref());
+                pdfrepo.setFile(null);
+                this.pdfRepository.save(pdfrepo);
+                batch.migrated++;
+            } catch (final Exception e) {
+                log.error("error migrating pdf {} to the content store", pdfrepo.getId(), e);
+                batch.failed++;
+            }
+        }
+        return batch;
+    }
+
+    private static final class Batch {
+
+        private final boolean hasNext;
+
+        private int migrated;
+
+        private int failed;
+
+        private Batch(final boolean hasNext) {
+            this.hasNext = hasNext;
+        }
+    }
+}
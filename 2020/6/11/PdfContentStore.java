@@ -0,0 +1,41 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/*
+almacen de los binarios de los pdfs fuera de la base de datos
+
+el PdfModel solo guarda la referencia que devuelve put(). Un mismo contenido puede estar
+referenciado por varios PdfModel, asi que nunca se borra al borrar uno: PdfContentSweeper
+borra los que ya no referencia ninguno
+ */
+public interface PdfContentStore {
+
+    // guarda el contenido en streaming y devuelve su referencia
+    String put(InputStream is) throws IOException;
+
+    // para PDFBox, que lee de fichero sin cargarlo entero en memoria
+    File file(String ref);
+
+    InputStream open(String ref) throws IOException;
+
+    boolean exists(String ref);
+
+    // todas las referencias guardadas
+    List<String> refs() throws IOException;
+
+    // ultima vez que se guardo ( put ) ese contenido
+    long lastModified(String ref) throws IOException;
+
+    /*
+    borra el contenido solo si no se ha vuelto a guardar desde olderThan, comprobado y borrado
+    de una vez frente a un put() del mismo contenido ( si no, se borraria uno recien guardado )
+     */
+    boolean deleteIfOlder(String ref, long olderThan) throws IOException;
+
+    // borra lo que haya quedado a medias de put() antes de olderThan
+    int deleteIncomplete(long olderThan) throws IOException;
+}
@@ -0,0 +1,81 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.easa.eccairs.importpdf.data.repository.PdfRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+borra del PdfContentStore los contenidos que ya no referencia ningun PdfModel
+
+deleteSmartFile y deleteFile no pueden borrar el fichero: el mismo contenido puede estar en
+otros contextos. Cada ${pdf.content-store.sweep-minutes} se sacan todas las referencias de la
+tabla de una vez y se borra lo que no esta, siempre que lleve mas de
+${pdf.content-store.orphan-grace-minutes} sin guardarse ( un put() reciente cuyo PdfModel aun
+no se ha guardado no cuenta como huerfano ). La fecha se vuelve a comprobar al borrar, junto
+con el put() del mismo contenido ( PdfContentStore.deleteIfOlder ). Tambien se limpian los
+ficheros a medias de put().
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "pdf.content-store.type", havingValue = "file")
+public class PdfContentSweeper {
+
+    private final PdfRepository pdfRepository;
+
+    private final PdfContentStore pdfContentStore;
+
+    private final long graceMillis;
+
+    private final ScheduledExecutorService sweeper;
+
+    public PdfContentSweeper(
+            PdfRepository pdfRepository,
+            PdfContentStore pdfContentStore,
+            @Value("${pdf.content-store.sweep-minutes:360}") long sweepMinutes,
+            @Value("${pdf.content-store.orphan-grace-minutes:60}") long graceMinutes
+    ) {
+        this.pdfRepository = pdfRepository;
+        this.pdfContentStore = pdfContentStore;
+        this.graceMillis = TimeUnit.MINUTES.toMillis(graceMinutes);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "pdf-content-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sweeper.scheduleWithFixedDelay(this::sweep, sweepMinutes, sweepMinutes, TimeUnit.MINUTES);
+    }
+
+    public int sweep() {
+        final long limit = System.currentTimeMillis() - this.graceMillis;
+        int deleted = 0;
+        try {
+            // las referencias se leen despues del limite: lo guardado antes ya esta en la tabla
+            final Set<String> referenced = this.pdfRepository.findAllFileRefs();
+            for (final String ref : this.pdfContentStore.refs()) {
+                if (!referenced.contains(ref)
+                        && this.pdfContentStore.lastModified(ref) < limit
+                        && this.pdfContentStore.deleteIfOlder(ref, limit)) {
+                    deleted++;
+                }
+            }
+            final int incomplete = this.pdfContentStore.deleteIncomplete(limit);
+            log.info("pdf content sweep: {} orphaned and {} incomplete files removed", deleted, incomplete);
+        } catch (final Exception e) {
+            log.error("error sweeping the pdf content store", e);
+        }
+        return deleted;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        this.sweeper.shutdownNow();
+    }
+}
@@ -0,0 +1,195 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/*
+metricas de la importacion de pdfs, por etapa y tipo de pdf
+
+importpdf.stage            tiempo de cada etapa ( stage = document.load, classification, extraction,
+                           structure, json.mount, schema.validation, provider.call ). PDFBox lee el Blob mientras
+                           carga, asi que document.load incluye la lectura del Blob
+importpdf.stage.allocation bytes reservados por el hilo durante la etapa ( si la jvm lo soporta:
+                           getCurrentThreadAllocatedBytes, jdk 14+, y no en hilos virtuales, que
+                           pueden cambiar de hilo portador a mitad de etapa )
+importpdf.submissions      envios por tipo de pdf
+importpdf.failures         fallos por etapa y clase de excepcion
+importpdf.upload.bytes     tamagno de los pdfs subidos
+importpdf.fieldconf.cache  aciertos / fallos de FieldConfCache
+importpdf.parse.cache      aciertos / fallos de ParseResultCache ( pdfs repetidos )
+ */
+@Component
+public class PdfImportMetrics {
+
+    static final String UNKNOWN_TYPE = "unknown";
+
+    // por reflexion, compila y arranca tambien en jdks sin ellos; null = no hay medida de memoria
+    private static final MethodHandle CURRENT_THREAD_ALLOCATED_BYTES = currentThreadAllocatedBytes();
+
+    private static final MethodHandle IS_VIRTUAL = isVirtual();
+
+    private final MeterRegistry registry;
+
+    private final DistributionSummary uploadBytes;
+
+    public PdfImportMetrics(
+            MeterRegistry registry,
+            FieldConfCache fieldConfCache,
+            ParseResultCache parseResultCache
+    ) {
+        this.registry = registry;
+        this.uploadBytes = DistributionSummary.builder("importpdf.upload.bytes")
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("importpdf.fieldconf.cache", fieldConfCache, FieldConfCache::getHits)
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("importpdf.fieldconf.cache", fieldConfCache, FieldConfCache::getMisses)
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("importpdf.parse.cache", parseResultCache, ParseResultCache::getHits)
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("importpdf.parse.cache", parseResultCache, ParseResultCache::getMisses)
+                .tag("result", "miss")
+                .register(registry);
+    }
+
+    public Stage start(final String stage) {
+        return new Stage(stage);
+    }
+
+    public void submission(final String pdfType) {
+        Counter.builder("importpdf.submissions")
+                .tag("pdfType", typeTag(pdfType))
+                .register(this.registry)
+                .increment();
+    }
+
+    public void failure(final String stage, final Throwable e) {
+        Counter.builder("importpdf.failures")
+                .tag("stage", stage)
+                .tag("exception", e.getClass().getSimpleName())
+                .register(this.registry)
+                .increment();
+    }
+
+    public void uploaded(final long bytes) {
+        this.uploadBytes.record(bytes);
+    }
+
+    private static String typeTag(final String pdfType) {
+        return Objects.isNull(pdfType) || pdfType.isEmpty() ? UNKNOWN_TYPE : pdfType;
+    }
+
+    private static MethodHandle currentThreadAllocatedBytes() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        try {
+            return MethodHandles.publicLookup()
+                    .findVirtual(com.sun.management.ThreadMXBean.class, "getCurrentThreadAllocatedBytes",
+                            MethodType.methodType(long.class))
+                    .bindTo(bean);
+        } catch (final ReflectiveOperationException e) {
+            // jdk anterior al 14
+            return null;
+        }
+    }
+
+    private static MethodHandle isVirtual() {
+        try {
+            return MethodHandles.publicLookup()
+                    .findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        } catch (final ReflectiveOperationException e) {
+            // jdk sin hilos virtuales
+            return null;
+        }
+    }
+
+    // -1 si no se puede medir en este hilo
+    private static long allocatedBytes() {
+        if (Objects.isNull(CURRENT_THREAD_ALLOCATED_BYTES)) {
+            return -1L;
+        }
+        try {
+            if (Objects.nonNull(IS_VIRTUAL) && (boolean) IS_VIRTUAL.invokeExact(Thread.currentThread())) {
+                return -1L;
+            }
+            return (long) CURRENT_THREAD_ALLOCATED_BYTES.invokeExact();
+        } catch (final Throwable e) {
+            return -1L;
+        }
+    }
+
+    /*
+    una etapa medida: start() al empezar, stop() al acabar ( en el mismo hilo ) y record(pdfType)
+    cuando ya se sabe el tipo, que para las primeras etapas es despues de clasificar
+     */
+    public final class Stage {
+
+        private final String name;
+
+        private final long startNanos;
+
+        private final long startAllocated;
+
+        private long nanos = -1L;
+
+        private long allocated = -1L;
+
+        private Stage(final String name) {
+            this.name = name;
+            this.startAllocated = allocatedBytes();
+            this.startNanos = System.nanoTime();
+        }
+
+        public Stage stop() {
+            if (this.nanos < 0) {
+                this.nanos = System.nanoTime() - this.startNanos;
+                final long endAllocated = allocatedBytes();
+                if (this.startAllocated >= 0 && endAllocated >= 0) {
+                    this.allocated = endAllocated - this.startAllocated;
+                }
+            }
+            return this;
+        }
+
+        public void record(final String pdfType) {
+            this.stop();
+            final String type = typeTag(pdfType);
+            Timer.builder("importpdf.stage")
+                    .tag("stage", this.name)
+                    .tag("pdfType", type)
+                    .publishPercentileHistogram()
+                    .register(PdfImportMetrics.this.registry)
+                    .record(this.nanos, TimeUnit.NANOSECONDS);
+            if (this.allocated >= 0) {
+                DistributionSummary.builder("importpdf.stage.allocation")
+                        .baseUnit("bytes")
+                        .tag("stage", this.name)
+                        .tag("pdfType", type)
+                        .register(PdfImportMetrics.this.registry)
+                        .record(this.allocated);
+            }
+        }
+
+        public void failed(final Throwable e) {
+            this.record(null);
+            PdfImportMetrics.this.failure(this.name, e);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.easa.eccairs.importpdf.core.exception.BadRequestException;
+import org.easa.eccairs.importpdf.core.exception.GenericException;
+import org.easa.eccairs.importpdf.core.exception.ServiceUnavailableException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/*
+limites para abrir pdfs subidos por los usuarios
+
+- como mucho ${pdf.parse.max-concurrent} pdfs abiertos a la vez, el resto espera
+  ${pdf.parse.acquire-timeout-millis} y si no hay hueco se rechaza ( 503 )
+- de esos huecos los envios publicos ( sincronos, asincronos o por lotes ) usan como mucho
+  ${pdf.parse.public.max-concurrent} y los parseos adelantados al subir
+  ${pdf.parse.preparse.max-concurrent}, asi siempre quedan huecos para los autenticados.
+  Se pide con admit() antes de abrir el pdf; el parseo adelantado no espera, si no hay hueco
+  se deja para el envio
+- cada documento usa como mucho ${pdf.parse.max-main-memory} de heap, lo que pase va a
+  ficheros temporales en ${pdf.parse.scratch-folder} ( vacio = el tmp del sistema )
+- se rechazan antes de cargar los pdfs de mas de ${pdf.parse.max-document-bytes}
+  y al recorrer el formulario los de mas de ${pdf.parse.max-fields} campos
+ */
+@Component
+public class PdfParseLimits {
+
+    public enum Use {
+        PUBLIC,
+        AUTHENTICATED,
+        PREPARSE
+    }
+
+    private final Semaphore permits;
+
+    private final Map<Use, Semaphore> uses = new EnumMap<>(Use.class);
+
+    private final long acquireTimeoutMillis;
+
+    private final long maxMainMemoryBytes;
+
+    private final File scratchFolder;
+
+    private final long maxDocumentBytes;
+
+    private final int maxFields;
+
+    public PdfParseLimits(
+            @Value("${pdf.parse.max-concurrent:4}") int maxConcurrent,
+            @Value("${pdf.parse.acquire-timeout-millis:5000}") long acquireTimeoutMillis,
+            @Value("${pdf.parse.max-main-memory:16777216}") long maxMainMemoryBytes,
+            @Value("${pdf.parse.scratch-folder:}") String scratchFolder,
+            @Value("${pdf.parse.max-document-bytes:52428800}") long maxDocumentBytes,
+            @Value("${pdf.parse.max-fields:2000}") int maxFields,
+            @Value("${pdf.parse.public.max-concurrent:1}") int publicConcurrent,
+            @Value("${pdf.parse.preparse.max-concurrent:1}") int preparseConcurrent
+    ) {
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.uses.put(Use.PUBLIC, new Semaphore(Math.min(publicConcurrent, maxConcurrent), true));
+        this.uses.put(Use.AUTHENTICATED, new Semaphore(maxConcurrent, true));
+        this.uses.put(Use.PREPARSE, new Semaphore(Math.min(preparseConcurrent, maxConcurrent)));
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.maxMainMemoryBytes = maxMainMemoryBytes;
+        this.scratchFolder = scratchFolder.isEmpty() ? null : new File(scratchFolder);
+        this.maxDocumentBytes = maxDocumentBytes;
+        this.maxFields = maxFields;
+    }
+
+    public void checkSize(final long bytes) {
+        if (bytes > this.maxDocumentBytes) {
+            throw new BadRequestException("pdf too large: " + bytes + " bytes, max " + this.maxDocumentBytes);
+        }
+    }
+
+    // copia el flujo a memoria cortando en cuanto pasa del limite ( entradas de un zip... )
+    public byte[] readBounded(final InputStream is) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[64 * 1024];
+        long total = 0;
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            total += read;
+            this.checkSize(total);
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    public void checkFields(final int fields) {
+        if (fields > this.maxFields) {
+            throw new BadRequestException("pdf has too many form fields: more than " + this.maxFields);
+        }
+    }
+
+    public static Use useOf(final boolean isPublic) {
+        return isPublic ? Use.PUBLIC : Use.AUTHENTICATED;
+    }
+
+    /*
+    hueco de esa clase de trafico para abrir un pdf, se suelta al cerrar el Permit
+    ( despues de cerrar la sesion )
+     */
+    public Permit admit(final Use use) {
+        final Semaphore semaphore = this.uses.get(use);
+        this.tryAcquire(semaphore, use == Use.PREPARSE ? 0L : this.acquireTimeoutMillis);
+        return semaphore::release;
+    }
+
+    public void acquire() {
+        this.tryAcquire(this.permits, this.acquireTimeoutMillis);
+    }
+
+    private void tryAcquire(final Semaphore semaphore, final long timeoutMillis) {
+        try {
+            if (!semaphore.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new ServiceUnavailableException("too many pdfs being parsed, try again later");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GenericException(e.getMessage());
+        }
+    }
+
+    public void release() {
+        this.permits.release();
+    }
+
+    // cada documento necesita su propia configuracion
+    public MemoryUsageSetting memoryUsage() {
+        return MemoryUsageSetting.setupMixed(this.maxMainMemoryBytes).setTempDir(this.scratchFolder);
+    }
+
+    public int getQueueLength() {
+        return this.permits.getQueueLength();
+    }
+
+    public int getAvailablePermits() {
+        return this.permits.availablePermits();
+    }
+
+    public interface Permit extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+}
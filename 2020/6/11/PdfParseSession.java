@@ -0,0 +1,147 @@
+package org.easa.eccairs.importpdf.core.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.interactive.form.PDAcroForm;
+import org.apache.pdfbox.pdmodel.interactive.form.PDField;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.IntConsumer;
+
+/*
+un pdf subido abierto una sola vez por peticion
+
+la primera vez que se pide un campo o un contador se recorre el acroForm una unica vez:
+se cuentan los campos que usa getPdfType y se indexan los campos por nombre, para que
+getMapCodeValueIDForm busque directamente los nombres configurados sin volver a recorrer el pdf
+
+se tiene que cerrar (try-with-resources) para liberar los recursos de PDFBox
+y lo que haya reservado quien la abre ( onClose, el hueco en PdfParseLimits )
+
+la abre PdfParserService.openSession, fieldCheck salta si el formulario tiene demasiados campos.
+contentHash es el sha-256 de los bytes que ha leido PDFBox, calculado mientras los leia, o null
+si quien la abre no lo ha calculado
+ */
+public class PdfParseSession implements Closeable {
+
+    private final PDDocument pdfDocument;
+
+    private final PDAcroForm acroForm;
+
+    private final IntConsumer fieldCheck;
+
+    private final Runnable onClose;
+
+    private final String contentHash;
+
+    private boolean closed;
+
+    private Map<String, PDField> fields;
+
+    private int fieldsStartingWithT;
+
+    private int textFields;
+
+    public PdfParseSession(final PDDocument pdfDocument, final IntConsumer fieldCheck, final Runnable onClose) {
+        this(pdfDocument, null, fieldCheck, onClose);
+    }
+
+    public PdfParseSession(
+            final PDDocument pdfDocument,
+            final String contentHash,
+            final IntConsumer fieldCheck,
+            final Runnable onClose
+    ) {
+        this.pdfDocument = pdfDocument;
+        this.contentHash = contentHash;
+        this.fieldCheck = fieldCheck;
+        this.onClose = onClose;
+        this.acroForm = pdfDocument.getDocumentCatalog().getAcroForm();
+        // los campos de primer nivel ya pasan del limite sin recorrer el arbol entero
+        fieldCheck.accept(this.getRootFields().size());
+    }
+
+    private void index() {
+        if (Objects.nonNull(this.fields)) {
+            return;
+        }
+        final Map<String, PDField> fieldsAux = new HashMap<>();
+        int cont = 0, contT = 0;
+        if (Objects.nonNull(this.acroForm)) {
+            for (final Iterator<PDField> it = this.acroForm.getFieldIterator(); it.hasNext(); ) {
+                final PDField field = it.next();
+                final String name = field.getFullyQualifiedName();
+                if (name.startsWith("T")) {
+                    cont++;
+                }
+                if ("Tx".equals(field.getFieldType())) {
+                    contT++;
+                }
+                fieldsAux.put(name, field);
+                if (fieldsAux.size() % 100 == 0) {
+                    this.fieldCheck.accept(fieldsAux.size());
+                }
+            }
+            this.fieldCheck.accept(fieldsAux.size());
+        }
+        this.fieldsStartingWithT = cont;
+        this.textFields = contT;
+        this.fields = Collections.unmodifiableMap(fieldsAux);
+    }
+
+    public boolean hasAcroForm() {
+        return Objects.nonNull(this.acroForm);
+    }
+
+    // solo los campos de primer nivel, no recorre el arbol
+    public List<PDField> getRootFields() {
+        return Objects.isNull(this.acroForm) ? Collections.emptyList() : this.acroForm.getFields();
+    }
+
+    public PDField getField(final String fullyQualifiedName) {
+        this.index();
+        return this.fields.get(fullyQualifiedName);
+    }
+
+    public Map<String, PDField> getFields() {
+        this.index();
+        return this.fields;
+    }
+
+    public int getFieldsStartingWithT() {
+        this.index();
+        return this.fieldsStartingWithT;
+    }
+
+    public int getTextFields() {
+        this.index();
+        return this.textFields;
+    }
+
+    public PDDocument getDocument() {
+        return this.pdfDocument;
+    }
+
+    public String getContentHash() {
+        return this.contentHash;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            this.pdfDocument.close();
+        } finally {
+            this.onClose.run();
+        }
+    }
+}
@@ -9,16 +9,14 @@ import org.apache.pdfbox.pdmodel.interactive.form.PDField;
 import org.easa.eccairs.auth.client.EccairsAuthUser;
 import org.easa.eccairs.importpdf.core.dto.PersonalDetails;
 import org.easa.eccairs.importpdf.core.exception.GetStructureException;
+import org.easa.eccairs.importpdf.core.service.PdfParseSession;
 import org.easa.eccairs.importpdf.core.service.PdfParserService;
 import org.easa.eccairs.importpdf.core.service.base.PdfParserServiceBase;
-import org.easa.eccairs.importpdf.data.model.AttributeModel;
-import org.easa.eccairs.importpdf.data.model.PdfFieldConfModel;
 import org.easa.eccairs.importpdf.data.model.PdfModel;
 import org.easa.eccairs.importpdf.data.repository.AttributeRepository;
 import org.easa.eccairs.importpdf.data.repository.PdfFieldConfRepository;
 import org.easa.eccairs.importpdf.util.Constants;
 import org.easa.eccairs.importpdf.util.TaxNode;
-import org.springframework.aop.AopInvocationException;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.ResourceUtils;
@@ -34,27 +32,47 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.StringTokenizer;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 @Slf4j
 @Service
 public class PdfParserServiceImpl extends PdfParserServiceBase implements PdfParserService {
 
+    private static final String CONTENT = "content";
+
     protected final AttributeRepository attributeRepository;
 
     protected final PdfFieldConfRepository pdfFieldConfRepository;
 
+    private final FieldConfCache fieldConfCache;
+
+    private final PdfTypeClassifier pdfTypeClassifier;
+
+    private final ComboOptionsCache comboOptionsCache;
+
+    private final PdfParseLimits pdfParseLimits;
+
+    private final TaxonomyRegistry taxonomyRegistry;
+
     private final String temp_folder;
 
     public PdfParserServiceImpl(
             AttributeRepository attributeRepository,
             PdfFieldConfRepository pdfFieldConfRepository,
+            FieldConfCache fieldConfCache,
+            PdfTypeClassifier pdfTypeClassifier,
+            ComboOptionsCache comboOptionsCache,
+            PdfParseLimits pdfParseLimits,
+            TaxonomyRegistry taxonomyRegistry,
             @Value("${temp.folder}") String temp_folder
     ) {
         this.attributeRepository = attributeRepository;
         this.pdfFieldConfRepository = pdfFieldConfRepository;
+        this.fieldConfCache = fieldConfCache;
+        this.pdfTypeClassifier = pdfTypeClassifier;
+        this.comboOptionsCache = comboOptionsCache;
+        this.pdfParseLimits = pdfParseLimits;
+        this.taxonomyRegistry = taxonomyRegistry;
         this.temp_folder = temp_folder;
     }
 
@@ -83,11 +101,73 @@ public class PdfParserServiceImpl extends PdfParserServiceBase implements PdfPar
         return true;
     }
 
+    /*
+    abre el pdf directamente desde el Blob, sin pasar por el fichero temporal compartido,
+    cada peticion tiene su propia sesion y es quien la debe cerrar.
+    el sha-256 se calcula sobre los mismos bytes que lee PDFBox ( session.getContentHash() ),
+    asi el resultado se puede guardar por contenido aunque el Blob cambie mientras tanto
+     */
     @Override
-    public String getPdfType(final String nameFilePdf) throws IOException {
+    public PdfParseSession openSession(final PdfModel pdfrepo) throws IOException, SQLException {
+        final Blob blob = pdfrepo.getFile();
+        this.pdfParseLimits.checkSize(blob.length());
+        this.pdfParseLimits.acquire();
+        try (final ContentHashes.Digesting is = ContentHashes.digesting(blob.getBinaryStream())) {
+            final PDDocument pdfDocument = PDDocument.load(is, this.pdfParseLimits.memoryUsage());
+            try {
+                // PDFBox ya ha copiado el flujo entero, por si acaso se lee lo que quede
+                is.drain();
+            } catch (final IOException e) {
+                pdfDocument.close();
+                throw e;
+            }
+            return this.session(pdfDocument, is.hash());
+        } catch (final IOException | SQLException | RuntimeException e) {
+            this.pdfParseLimits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public PdfParseSession openSession(final byte[] bytes) throws IOException {
+        this.pdfParseLimits.checkSize(bytes.length);
+        this.pdfParseLimits.acquire();
         try {
-            final PDDocument pdfDocument = PDDocument.load(
-                    ResourceUtils.getFile("classpath:" + this.temp_folder + Constants.TEMP_FILE));
+            return this.session(PDDocument.load(bytes, "", null, null, this.pdfParseLimits.memoryUsage()), null);
+        } catch (final IOException | RuntimeException e) {
+            this.pdfParseLimits.release();
+            throw e;
+        }
+    }
+
+    // desde fichero PDFBox lee segun necesita, sin copiar el pdf entero a memoria
+    @Override
+    public PdfParseSession openSession(final File file) throws IOException {
+        this.pdfParseLimits.checkSize(file.length());
+        this.pdfParseLimits.acquire();
+        try {
+            return this.session(PDDocument.load(file, this.pdfParseLimits.memoryUsage()), null);
+        } catch (final IOException | RuntimeException e) {
+            this.pdfParseLimits.release();
+            throw e;
+        }
+    }
+
+    // el hueco lo suelta quien llama si esto falla, y la sesion al cerrarse si no
+    private PdfParseSession session(final PDDocument pdfDocument, final String contentHash) throws IOException {
+        try {
+            return new PdfParseSession(
+                    pdfDocument, contentHash, this.pdfParseLimits::checkFields, this.pdfParseLimits::release);
+        } catch (final RuntimeException e) {
+            pdfDocument.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public String getPdfType(final String nameFilePdf) throws IOException {
+        try (final PDDocument pdfDocument = PDDocument.load(
+                ResourceUtils.getFile("classpath:" + this.temp_folder + Constants.TEMP_FILE))) {
             final PDAcroForm acroForm = pdfDocument.getDocumentCatalog().getAcroForm();
             if (Objects.nonNull(acroForm)) {
                 return this.getPdfType2(acroForm);
@@ -98,8 +178,13 @@ public class PdfParserServiceImpl extends PdfParserServiceBase implements PdfPar
         return "";
     }
 
+    @Override
+    public String getPdfType(final PdfParseSession session) {
+        return this.pdfTypeClassifier.classify(session);
+    }
+
     private String getPdfType2(final PDAcroForm acroForm) {
-        Integer contT = 0, contC = 0, contB = 0, cont = 0;
+        int contT = 0, cont = 0;
         for (final Iterator<PDField> it = acroForm.getFieldIterator(); it.hasNext(); ) {
             final PDField field = it.next();
             if (field.getFullyQualifiedName().startsWith("T")) {
@@ -107,27 +192,9 @@ public class PdfParserServiceImpl extends PdfParserServiceBase implements PdfPar
             }
             if (field.getFieldType().equals("Tx")) {
                 contT++;
-            } else if (field.getFieldType().equals("Ch")) {
-                contC++;
-            } else if (field.getFieldType().equals("Btn")) {
-                contB++;
             }
         }
-        if (cont == 40 && contT == 19) {
-            return Constants.PDF_TYPE_IND;
-        } else if (cont == 200 && contT == 78) {
-            return Constants.PDF_TYPE_AER;
-        } else if (cont == 250 && contT == 90) {
-            return Constants.PDF_TYPE_ATM;
-        } else if (cont == 256 && contT == 100) {
-            return Constants.PDF_TYPE_FLI;
-        } else if (cont == 231 && contT == 122) {
-            return Constants.PDF_TYPE_TEC;
-        } else if (cont == 63 && contT == 26) {
-            return Constants.PDF_TYPE_ORG;
-        } else {
-            return null;
-        }
+        return PdfTypeClassifier.classifyByCounts(cont, contT);
     }
 
     @Override
@@ -135,9 +202,8 @@ public class PdfParserServiceImpl extends PdfParserServiceBase implements PdfPar
             final String nameFilePdf,
             final String pdfType
     ) {
-        try {
-            final PDDocument pdfDocument = PDDocument.load(
-                    ResourceUtils.getFile("classpath:" + this.temp_folder + Constants.TEMP_FILE));
+        try (final PDDocument pdfDocument = PDDocument.load(
+                ResourceUtils.getFile("classpath:" + this.temp_folder + Constants.TEMP_FILE))) {
             final PDAcroForm acroForm = pdfDocument.getDocumentCatalog().getAcroForm();
             if (Objects.nonNull(acroForm)) {
                 final Map<String, String> codeValuesID = this.getCodeValueIdForm(acroForm, pdfType);
@@ -149,6 +215,21 @@ public class PdfParserServiceImpl extends PdfParserServiceBase implements PdfPar
         return new HashMap<>();
     }
 
+    @Override
+    public Map<String, String> getMapCodeValueIDForm(
+            final PdfParseSession session,
+            final String pdfType
+    ) {
+        final Map<String, String> codeValueIDFormAux = new HashMap<>();
+        final Map<String, String> codeValuesID = this.getMapCodeValuesID(pdfType);
+        for (final String name : codeValuesID.keySet()) {
+            final PDField field = session.getField(name);
+            if (Objects.nonNull(field)) {
+                codeValueIDFormAux.put(name, this.getTaxonomyCode(field, pdfType));
+            }
+        }
+        return codeValueIDFormAux;
+    }
 
     /*
     en Constants tengo puestos a fuego los campos que me interesan del pdf,
@@ -164,48 +245,19 @@ public class PdfParserServiceImpl extends PdfParserServiceBase implements PdfPar
         for (final Iterator<PDField> it = acroForm.getFieldIterator(); it.hasNext(); ) {
             final PDField field = it.next();
             if (codeValuesID.containsKey(field.getFullyQualifiedName())) {
-                codeValueIDFormAux.put(field.getFullyQualifiedName(), this.getTaxonomyCode(field, codeValuesID));
+                codeValueIDFormAux.put(field.getFullyQualifiedName(), this.getTaxonomyCode(field, pdfType));
             }
         }
         return codeValueIDFormAux;
     }
 
     private Map<String, String> getMapCodeValuesID(final String pdfType) {
-        Integer pdft = Integer.parseInt(pdfType);
-
-        final Map<String, String> codeDValuesIDn2 = new HashMap<>();
-        final List<AttributeModel> att = this.attributeRepository.findAll();
-        final HashMap atthash = new HashMap();
-        for (final AttributeModel am : att) {
-            atthash.put(am.getId(), am.getTaxonomy_code());
-        }
-        final List<PdfFieldConfModel> pfc = this.pdfFieldConfRepository.findAll();
-        for (final PdfFieldConfModel reg : pfc) {
-            if (reg.getPdf_id().equals(pdft)) {
-                final Integer tax = (Integer) atthash.get(reg.getAttribute_id());
-                codeDValuesIDn2.put(reg.getName(), tax.toString());
-            }
-        }
-        return codeDValuesIDn2;
+        return this.fieldConfCache.get(pdfType).getNameToCode();
     }
 
     @Override
     public Map<String, String> getMapCodeHierarchy(final String pdfType) {
-        final Integer pdft = Integer.parseInt(pdfType);
-        final Map<String, String> codeDValuesIDn2 = new HashMap<String, String>();
-        final List<AttributeModel> att = this.attributeRepository.findAll();
-        final HashMap atthash = new HashMap();
-        for (final AttributeModel am : att) {
-            atthash.put(am.getId(), am.getTaxonomy_code());
-        }
-        final List<PdfFieldConfModel> pfc = this.pdfFieldConfRepository.findAll();
-        for (final PdfFieldConfModel reg : pfc) {
-            if (reg.getPdf_id().equals(pdft)) {
-                final Integer tax = (Integer) atthash.get(reg.getAttribute_id());
-                codeDValuesIDn2.put(tax.toString(), reg.getHierarchy());
-            }
-        }
-        return codeDValuesIDn2;
+        return this.fieldConfCache.get(pdfType).getCodeToHierarchy();
     }
 
     @Override
@@ -215,44 +267,28 @@ public class PdfParserServiceImpl extends PdfParserServiceBase implements PdfPar
             final String father,
             final String pdfType
     ) {
+        final Map<String, String> codeValIDInv = this.getMapCodeValuesIDInverse(pdfType);
         try {
-            String tokant = "", tok = "", lev = "", strucEntry = "";
-            final Map<String, String> codeValIDInv = this.getMapCodeValuesIDInverse(pdfType);
-            final TaxNode struct = new TaxNode();
-            struct.setId("24");
-            for (final Map.Entry m : mapHierarchy.entrySet()) {
-                if (m.getValue().equals("{\"24\": {}}")) {
-                    struct.attr.put((String) m.getKey(), mapCodes.get(codeValIDInv.get(m.getKey())));
-                } else if (m.getValue().equals("")) {
-                    throw new GetStructureException(" (bbdd data error) hierarchy code for taxonomy : " + m.getKey() + " is empty");
-                } else {
-                    final StringTokenizer token = new StringTokenizer((String) m.getValue(), ":");
-                    tokant = token.nextToken();
-                    tok = token.nextToken();
-                    strucEntry = "";
-                    while (token.hasMoreTokens()) {
-                        tokant = tok;
-                        tok = token.nextToken();
-                        lev = tokant.substring(3, tokant.length() - 1);
-                        strucEntry += lev + ",";
-                        struct.putAtrr(strucEntry, (String) m.getKey(), mapCodes.get(codeValIDInv.get(m.getKey())));
-
-                    }
-                }
-                if (mapCodes.get(codeValIDInv.get(m.getKey())).equals("243")) {
-                    final Integer kk22 = 0;
-                }
-                if ((m.getKey()).equals("215")) {
-                    final Integer kk22 = 0;
-                }
-            }
-            return struct;
+            return HierarchyTemplate.compile(mapHierarchy, codeValIDInv).fill(mapCodes);
+        } catch (final GetStructureException e) {
+            throw e;
         } catch (final Exception e) {
             throw new GetStructureException("error in getAllChilds");
         }
     }
 
-    private String getTaxonomyCode(final PDField field, final Map<String, String> codeValuesID) {
+    /*
+    igual que getStructure pero con la jerarquia ya compilada en la cache de configuracion
+     */
+    @Override
+    public TaxNode getStructure(
+            final Map<String, String> mapCodes,
+            final String pdfType
+    ) {
+        return this.fieldConfCache.get(pdfType).getHierarchy().fill(mapCodes);
+    }
+
+    private String getTaxonomyCode(final PDField field, final String pdfType) {
         String taxonomy_code_value = "";
         String taxonomy_code_value2 = "";
         if (field.getFieldType().equals("Tx")) {
@@ -266,7 +302,7 @@ public class PdfParserServiceImpl extends PdfParserServiceBase implements PdfPar
                 //if (NumberUtils.isParsable(taxonomy_code_value)) {
                 //   return taxonomy_code_value;
                 //} else {
-                taxonomy_code_value2 = this.convertPdfTextToCode(taxonomy_code_value, field, Integer.valueOf(codeValuesID.get(field.getFullyQualifiedName())));
+                taxonomy_code_value2 = this.convertPdfTextToCode(taxonomy_code_value, field, pdfType);
                 return taxonomy_code_value2;
             }
         }
@@ -287,33 +323,16 @@ public class PdfParserServiceImpl extends PdfParserServiceBase implements PdfPar
     con el pdf_code y la etiqueta se llama a findTaxonomyCode que obtiene
     el taxonomy code
     */
-    private String convertPdfCodeToText(final String pdf_code, final PDField field, final Integer atributeTaxonomyCode) {
+    private String convertPdfCodeToText(final String pdf_code, final PDField field, final String pdfType) {
         final PDComboBox pdComboBox = (PDComboBox) field;
-        final Map<String, String> CodeDispla = new HashMap<String, String>();
-        final AtomicInteger i = new AtomicInteger(-1);
-        for (final String code : pdComboBox.getOptionsExportValues()) {
-            CodeDispla.put(code, pdComboBox.getOptionsDisplayValues().get(i.incrementAndGet()));
-        }
-        try {
-            return String.valueOf(CodeDispla.get(pdf_code));
-        } catch (final AopInvocationException e) {
-            return pdf_code;
-        }
+        // null si el combo no tiene ese codigo
+        return this.comboOptionsCache.get(pdfType, pdComboBox).toDisplay(pdf_code);
     }
 
     // esta hace lo inverso de la funcion convertPdfCodeToText
-    private String convertPdfTextToCode(final String pdf_code, final PDField field, final Integer atributeTaxonomyCode) {
+    private String convertPdfTextToCode(final String pdf_code, final PDField field, final String pdfType) {
         final PDComboBox pdComboBox = (PDComboBox) field;
-        final Map<String, String> CodeDispla = new HashMap<String, String>();
-        final AtomicInteger i = new AtomicInteger(-1);
-        for (final String code : pdComboBox.getOptionsExportValues()) {
-            CodeDispla.put(pdComboBox.getOptionsDisplayValues().get(i.incrementAndGet()), code);
-        }
-        try {
-            return String.valueOf(CodeDispla.get(pdf_code));
-        } catch (final AopInvocationException e) {
-            return pdf_code;
-        }
+        return String.valueOf(this.comboOptionsCache.get(pdfType, pdComboBox).toExport(pdf_code));
     }
 
     public Map mountOcurrences(
@@ -377,13 +396,34 @@ public class PdfParserServiceImpl extends PdfParserServiceBase implements PdfPar
         return json1;
     }
 
+    /*
+    igual que mountOcurrences pero ya serializado a json, escrito directamente desde el TaxNode
+     */
+    @Override
+    public byte[] mountOcurrencesJson(
+            final PersonalDetails personaldetails,
+            final EccairsAuthUser user,
+            final Integer responsibleEntityId,
+            final Integer reportingEntityId,
+            final TaxNode structure,
+            final boolean isPublic
+    ) throws IOException {
+        return OccurrenceJsonWriter.write(
+                personaldetails,
+                user,
+                responsibleEntityId,
+                reportingEntityId,
+                structure,
+                isPublic,
+                this.taxonomyRegistry);
+    }
+
     private Map mountJson(final TaxNode structure, final String id) {
         final Map json1 = new HashMap<>();
         final Map json2 = new HashMap<>();
         final Map json3 = new HashMap<>();
 
-        final Map<String, String> taxIds = Constants.geTaxIds();
-        json1.put(Constants.JSON_PDF_ID, taxIds.get(id));
+        json1.put(Constants.JSON_PDF_ID, this.taxonomyRegistry.entityId(id));
 
         for (final Map.Entry<String, String> m : structure.attr.entrySet()) {
             if (m.getValue() != "") {
@@ -402,21 +442,107 @@ public class PdfParserServiceImpl extends PdfParserServiceBase implements PdfPar
         return json1;
     }
 
-    private Map<String, String> getMapCodeValuesIDInverse(final String pdfType) {
-        Integer pdft = Integer.parseInt(pdfType);
-        final Map<String, String> codeDValuesIDn2 = new HashMap<String, String>();
-        final List<AttributeModel> att = this.attributeRepository.findAll();
-        final HashMap atthash = new HashMap();
-        for (final AttributeModel am : att) {
-            atthash.put(am.getId(), am.getTaxonomy_code());
+    /*
+    lo inverso de mountJson: recorre ATTRIBUTES / ENTITIES de la ocurrencia y deja codigo de
+    taxonomia -> valor. Un mismo atributo puede estar en varios niveles de la jerarquia, siempre
+    con el mismo valor, se queda el primero
+     */
+    @Override
+    public Map<String, String> getMapCodeValuesFromOcurrence(final Map<String, Object> ocurrence) {
+        Object root = ocurrence;
+        if (ocurrence.get(Constants.TAXONOMY_CODE) instanceof Map) {
+            root = ((Map) ocurrence.get(Constants.TAXONOMY_CODE)).get(Constants.TAXONOMY_ROOT);
         }
-        final List<PdfFieldConfModel> pfc = this.pdfFieldConfRepository.findAll();
-        for (final PdfFieldConfModel reg : pfc) {
-            if (reg.getPdf_id().equals(pdft)) {
-                final Integer tax = (Integer) atthash.get(reg.getAttribute_id());
-                codeDValuesIDn2.put(tax.toString(), reg.getName());
+        final Map<String, String> codeValues = new HashMap<>();
+        this.collectAttributes(root, codeValues);
+        return codeValues;
+    }
+
+    private void collectAttributes(final Object node, final Map<String, String> codeValues) {
+        if (node instanceof List) {
+            for (final Object n : (List) node) {
+                this.collectAttributes(n, codeValues);
+            }
+            return;
+        }
+        if (!(node instanceof Map)) {
+            return;
+        }
+        final Object attributes = ((Map) node).get(Constants.JSON_PDF_ATTRIBUTES);
+        if (attributes instanceof Map) {
+            for (final Object m : ((Map) attributes).entrySet()) {
+                final Map.Entry attr = (Map.Entry) m;
+                final String value = attributeValue(attr.getValue());
+                if (Objects.nonNull(value)) {
+                    codeValues.putIfAbsent(String.valueOf(attr.getKey()), value);
+                }
+            }
+        }
+        final Object entities = ((Map) node).get(Constants.JSON_PDF_ENTITIES);
+        if (entities instanceof Map) {
+            for (final Object child : ((Map) entities).values()) {
+                this.collectAttributes(child, codeValues);
+            }
+        }
+    }
+
+    /*
+    valor de un atributo tal como lo devuelve el proveedor:
+    228 o "texto"                                   -> tal cual
+    {"AdditionalText": "", "content": 228}          -> el content
+    [23, 2] ( atributo con varios valores )         -> el primero, un campo del pdf solo tiene uno
+    lo demas ( EncodedText, objetos sin content )   -> null, no se rellena
+     */
+    private static String attributeValue(final Object value) {
+        if (value instanceof Map) {
+            return attributeValue(((Map) value).get(CONTENT));
+        }
+        if (value instanceof List) {
+            final List values = (List) value;
+            return values.isEmpty() ? null : attributeValue(values.get(0));
+        }
+        if (value instanceof String || value instanceof Number || value instanceof Boolean) {
+            return String.valueOf(value);
+        }
+        return null;
+    }
+
+    /*
+    rellena el formulario con los valores por codigo de taxonomia, usando la configuracion de
+    campos al reves ( codigo -> campo pdf ). En los combos se pone la etiqueta del codigo,
+    igual que se lee en getTaxonomyCode. Devuelve cuantos campos se han rellenado
+     */
+    @Override
+    public int fillForm(
+            final PDAcroForm acroForm,
+            final Map<String, String> codeValues,
+            final String pdfType
+    ) throws IOException {
+        final Map<String, String> codeToName = this.getMapCodeValuesIDInverse(pdfType);
+        int filled = 0;
+        for (final Map.Entry<String, String> m : codeValues.entrySet()) {
+            final String name = codeToName.get(m.getKey());
+            final PDField field = Objects.isNull(name) ? null : acroForm.getField(name);
+            if (Objects.isNull(field)) {
+                continue;
+            }
+            try {
+                if (field.getFieldType().equals("Tx")) {
+                    field.setValue(m.getValue());
+                    filled++;
+                } else if (field instanceof PDComboBox) {
+                    final String label = this.convertPdfCodeToText(m.getValue(), field, pdfType);
+                    field.setValue(Objects.isNull(label) ? m.getValue() : label);
+                    filled++;
+                }
+            } catch (final IllegalArgumentException e) {
+                log.warn("value {} not valid for field {}: {}", m.getValue(), name, e.getMessage());
             }
         }
-        return codeDValuesIDn2;
+        return filled;
+    }
+
+    private Map<String, String> getMapCodeValuesIDInverse(final String pdfType) {
+        return this.fieldConfCache.get(pdfType).getCodeToName();
     }
 }
@@ -0,0 +1,94 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.pdmodel.interactive.form.PDField;
+import org.apache.pdfbox.pdmodel.interactive.form.PDNonTerminalField;
+import org.easa.eccairs.importpdf.core.service.PdfParseSession;
+import org.easa.eccairs.importpdf.util.Constants;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/*
+averigua el tipo de pdf
+
+la plantilla se reconoce por sus campos de primer nivel ( nombre, tipo y cuantos hijos tiene ),
+que PDFBox ya tiene leidos sin recorrer el arbol. Si esa plantilla ya se ha clasificado se
+devuelve su tipo ( cache LRU de ${pdf.type.cache.max-entries} plantillas ) y si no se usa la
+regla de siempre de contar campos, que si recorre el arbol ( el mismo recorrido que indexa los
+campos para la extraccion, se hace una sola vez por sesion )
+ */
+@Slf4j
+@Component
+public class PdfTypeClassifier {
+
+    private static final String UNKNOWN = "";
+
+    private final Map<String, String> templateCache;
+
+    public PdfTypeClassifier(
+            @Value("${pdf.type.cache.max-entries:256}") int maxCachedTemplates
+    ) {
+        this.templateCache = Collections.synchronizedMap(new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+                return this.size() > maxCachedTemplates;
+            }
+        });
+    }
+
+    public String classify(final PdfParseSession session) {
+        if (!session.hasAcroForm()) {
+            return UNKNOWN;
+        }
+        final String template = templateKey(session.getRootFields());
+        final String cached = this.templateCache.get(template);
+        if (Objects.nonNull(cached)) {
+            return UNKNOWN.equals(cached) ? null : cached;
+        }
+        final String pdfType = classifyByCounts(session.getFieldsStartingWithT(), session.getTextFields());
+        log.info("new pdf template with {} root fields classified by field count as {}",
+                session.getRootFields().size(), pdfType);
+        this.templateCache.put(template, Objects.isNull(pdfType) ? UNKNOWN : pdfType);
+        return pdfType;
+    }
+
+    /*
+    la regla original: campos cuyo nombre empieza por "T" y campos de texto "Tx"
+     */
+    public static String classifyByCounts(final int cont, final int contT) {
+        if (cont == 40 && contT == 19) {
+            return Constants.PDF_TYPE_IND;
+        } else if (cont == 200 && contT == 78) {
+            return Constants.PDF_TYPE_AER;
+        } else if (cont == 250 && contT == 90) {
+            return Constants.PDF_TYPE_ATM;
+        } else if (cont == 256 && contT == 100) {
+            return Constants.PDF_TYPE_FLI;
+        } else if (cont == 231 && contT == 122) {
+            return Constants.PDF_TYPE_TEC;
+        } else if (cont == 63 && contT == 26) {
+            return Constants.PDF_TYPE_ORG;
+        } else {
+            return null;
+        }
+    }
+
+    // campos de primer nivel en el orden del pdf, sin ordenar ni calcular ningun hash
+    static String templateKey(final List<PDField> rootFields) {
+        final StringBuilder key = new StringBuilder(rootFields.size() * 16);
+        key.append(rootFields.size());
+        for (final PDField field : rootFields) {
+            key.append('\n').append(field.getPartialName()).append('\0').append(field.getFieldType());
+            if (field instanceof PDNonTerminalField) {
+                key.append('\0').append(((PDNonTerminalField) field).getChildren().size());
+            }
+        }
+        return key.toString();
+    }
+}
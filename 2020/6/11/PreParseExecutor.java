@@ -0,0 +1,77 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/*
+parseo especulativo de los pdfs recien subidos
+
+es trabajo adelantado, no imprescindible: si la cola ${pdf.preparse.queue-capacity} esta llena
+la tarea se descarta ( submit devuelve null ) y el envio parseara el pdf como siempre.
+con ${pdf.preparse.enabled}=false no se adelanta nada
+ */
+@Slf4j
+@Component
+public class PreParseExecutor {
+
+    private final ThreadPoolExecutor executor;
+
+    private final boolean enabled;
+
+    public PreParseExecutor(
+            @Value("${pdf.preparse.enabled:true}") boolean enabled,
+            @Value("${pdf.preparse.workers:2}") int workers,
+            @Value("${pdf.preparse.queue-capacity:50}") int queueCapacity,
+            BlockingIoExecutor blockingIoExecutor
+    ) {
+        this.enabled = enabled;
+        this.executor = new ThreadPoolExecutor(
+                workers,
+                workers,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                blockingIoExecutor.threadFactory("pdf-preparse-"),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+    }
+
+    public <T> CompletableFuture<T> submit(final Callable<T> task) {
+        if (!this.enabled) {
+            return null;
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return task.call();
+                } catch (final RuntimeException e) {
+                    throw e;
+                } catch (final Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, this.executor);
+        } catch (final RejectedExecutionException e) {
+            log.debug("pre-parse queue full, task dropped");
+            return null;
+        }
+    }
+
+    public int getQueueSize() {
+        return this.executor.getQueue().size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+}
@@ -0,0 +1,16 @@
+package org.easa.eccairs.importpdf.core.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/*
+503: el servidor esta al limite de pdfs abiertos ( PdfParseLimits ), el cliente puede volver
+a intentarlo mas tarde
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class ServiceUnavailableException extends RuntimeException {
+
+    public ServiceUnavailableException(final String message) {
+        super(message);
+    }
+}
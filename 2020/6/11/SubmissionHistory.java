@@ -0,0 +1,195 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/*
+ultimo envio correcto de cada idContext, para reenviar solo lo que ha cambiado
+
+se guarda el tipo de pdf, la cabecera ( entidades, usuario, publico ), los valores extraidos
+( campo pdf -> valor ) y el id de la ocurrencia que devolvio el proveedor. Si se vuelve a
+enviar el mismo contexto con el mismo tipo y la misma cabecera solo se manda como update lo
+que ha cambiado. Si se ha vaciado algun campo ( ya no esta, o pasa a "" ) se manda entera, tambien como update de la
+misma ocurrencia ( el json no tiene forma de quitar un atributo ). deleteSmartFile olvida el
+contexto.
+
+LRU acotada a ${submission.delta.max-entries}, desactivado por defecto ( ${submission.delta.enabled} )
+ */
+@Component
+public class SubmissionHistory {
+
+    private final boolean enabled;
+
+    private final Map<Integer, Submitted> submitted;
+
+    public SubmissionHistory(
+            @Value("${submission.delta.enabled:false}") boolean enabled,
+            @Value("${submission.delta.max-entries:1000}") int maxEntries
+    ) {
+        this.enabled = enabled;
+        this.submitted = Collections.synchronizedMap(new LinkedHashMap<Integer, Submitted>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Integer, Submitted> eldest) {
+                return this.size() > maxEntries;
+            }
+        });
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /*
+    el envio anterior de ese contexto si se le puede aplicar un delta, si no null
+     */
+    public Submitted previous(final Integer idContext, final String pdfType, final String envelope) {
+        if (!this.enabled || Objects.isNull(idContext)) {
+            return null;
+        }
+        final Submitted previous = this.submitted.get(idContext);
+        if (Objects.isNull(previous)
+                || !previous.pdfType.equals(pdfType)
+                || !previous.envelope.equals(envelope)) {
+            return null;
+        }
+        return previous;
+    }
+
+    public void record(
+            final Integer idContext,
+            final MountedOcurrence mounted,
+            final Object ocurrenceId,
+            final int status,
+            final Object body
+    ) {
+        if (!this.enabled || Objects.isNull(idContext) || Objects.isNull(ocurrenceId)) {
+            return;
+        }
+        this.submitted.put(idContext, new Submitted(
+                mounted.getPdfType(),
+                mounted.getEnvelope(),
+                mounted.getCodeValues(),
+                ocurrenceId,
+                status,
+                body
+        ));
+    }
+
+    public void forget(final Integer idContext) {
+        this.submitted.remove(idContext);
+    }
+
+    /*
+    campos nuevos o con otro valor, o null si alguno de los anteriores ya no esta o se ha
+    vaciado: el json no lleva los valores vacios, un delta no podria borrarlo
+     */
+    static Map<String, String> diff(final Map<String, String> before, final Map<String, String> after) {
+        for (final Map.Entry<String, String> m : before.entrySet()) {
+            if (!isEmpty(m.getValue()) && isEmpty(after.get(m.getKey()))) {
+                return null;
+            }
+        }
+        final Map<String, String> changed = new HashMap<>();
+        for (final Map.Entry<String, String> m : after.entrySet()) {
+            if (!Objects.equals(before.get(m.getKey()), m.getValue())) {
+                changed.put(m.getKey(), m.getValue());
+            }
+        }
+        return changed;
+    }
+
+    private static boolean isEmpty(final String value) {
+        return Objects.isNull(value) || value.isEmpty();
+    }
+
+    // id de la ocurrencia en la respuesta del proveedor ( { "id": ... } )
+    static Object ocurrenceId(final Object body) {
+        return body instanceof Map ? ((Map) body).get("id") : null;
+    }
+
+    public static final class Submitted {
+
+        private final String pdfType;
+
+        private final String envelope;
+
+        private final Map<String, String> codeValues;
+
+        private final Object ocurrenceId;
+
+        private final int status;
+
+        private final Object body;
+
+        private Submitted(
+                final String pdfType,
+                final String envelope,
+                final Map<String, String> codeValues,
+                final Object ocurrenceId,
+                final int status,
+                final Object body
+        ) {
+            this.pdfType = pdfType;
+            this.envelope = envelope;
+            this.codeValues = codeValues;
+            this.ocurrenceId = ocurrenceId;
+            this.status = status;
+            this.body = body;
+        }
+
+        public Map<String, String> getCodeValues() {
+            return this.codeValues;
+        }
+
+        public Object getOcurrenceId() {
+            return this.ocurrenceId;
+        }
+
+        public Object getBody() {
+            return this.body;
+        }
+    }
+
+    /*
+    lo que se manda en un reenvio como update de la ocurrencia anterior: solo los atributos
+    cambiados, la ocurrencia entera si se ha vaciado algun campo, o nada si no ha cambiado
+    ningun campo ( se devuelve la respuesta del envio anterior, con su mismo status )
+     */
+    public static final class Delta {
+
+        private final Submitted previous;
+
+        private final byte[] ocurrence;
+
+        Delta(final Submitted previous, final byte[] ocurrence) {
+            this.previous = previous;
+            this.ocurrence = ocurrence;
+        }
+
+        public Object getOcurrenceId() {
+            return this.previous.ocurrenceId;
+        }
+
+        public Object getPreviousBody() {
+            return this.previous.body;
+        }
+
+        public int getPreviousStatus() {
+            return this.previous.status;
+        }
+
+        public boolean isEmpty() {
+            return Objects.isNull(this.ocurrence);
+        }
+
+        public byte[] getOcurrence() {
+            return this.ocurrence;
+        }
+    }
+}
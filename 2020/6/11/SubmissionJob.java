@@ -0,0 +1,99 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import org.springframework.http.ResponseEntity;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/*
+estado de un envio asincrono de pdf
+
+el cliente consulta por id ( polling ) o, dentro del proceso, se engancha a getResult()
+ */
+public class SubmissionJob {
+
+    public enum Status {
+        PENDING,
+        RUNNING,
+        RETRYING,
+        DONE,
+        FAILED
+    }
+
+    private final String id = UUID.randomUUID().toString();
+
+    private final Integer idContext;
+
+    private final long createdAt = System.currentTimeMillis();
+
+    private final CompletableFuture<ResponseEntity<Object>> result = new CompletableFuture<>();
+
+    private volatile Status status = Status.PENDING;
+
+    private volatile int attempts;
+
+    private volatile String error;
+
+    private volatile long updatedAt = this.createdAt;
+
+    SubmissionJob(final Integer idContext) {
+        this.idContext = idContext;
+    }
+
+    void running(final int attempt) {
+        this.attempts = attempt;
+        this.update(attempt > 1 ? Status.RETRYING : Status.RUNNING);
+    }
+
+    void done(final ResponseEntity<Object> response) {
+        this.update(Status.DONE);
+        this.result.complete(response);
+    }
+
+    void failed(final Exception e) {
+        this.error = e.getMessage();
+        this.update(Status.FAILED);
+        this.result.completeExceptionally(e);
+    }
+
+    private void update(final Status status) {
+        this.status = status;
+        this.updatedAt = System.currentTimeMillis();
+    }
+
+    public boolean isFinished() {
+        return this.status == Status.DONE || this.status == Status.FAILED;
+    }
+
+    public String getId() {
+        return this.id;
+    }
+
+    public Integer getIdContext() {
+        return this.idContext;
+    }
+
+    public Status getStatus() {
+        return this.status;
+    }
+
+    public int getAttempts() {
+        return this.attempts;
+    }
+
+    public String getError() {
+        return this.error;
+    }
+
+    public long getCreatedAt() {
+        return this.createdAt;
+    }
+
+    public long getUpdatedAt() {
+        return this.updatedAt;
+    }
+
+    public CompletableFuture<ResponseEntity<Object>> getResult() {
+        return this.result;
+    }
+}
@@ -0,0 +1,168 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.easa.eccairs.importpdf.core.exception.BadRequestException;
+import org.easa.eccairs.importpdf.core.exception.GenericException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/*
+ejecuta los envios asincronos en un pool acotado de workers
+
+prepare: leer, clasificar, extraer, montar la estructura y el json ( no se reintenta )
+send: llamada al proveedor de ocurrencias. Solo se reintenta, con espera exponencial, lo que
+      seguro que no ha creado nada en el proveedor: un 503 o no haber podido ni conectar.
+      Un timeout de lectura o un 500 pueden haber creado ya la ocurrencia y reintentarlos
+      la duplicaria, asi que el job falla y el cliente decide
+
+los jobs viven solo en memoria: si se reinicia se pierden los que no habian terminado. Por eso
+el pdf no se marca como enviado hasta que el proveedor responde bien ( ver submitPdfAsync ),
+y mientras hay un job sin terminar para un idContext no se admite otro.
+los jobs terminados se guardan ${submission.async.retention-minutes} para poder consultarlos
+ */
+@Slf4j
+@Component
+public class SubmissionJobExecutor {
+
+    private final ThreadPoolExecutor executor;
+
+    private final int maxAttempts;
+
+    private final long backoffMillis;
+
+    private final long retentionMillis;
+
+    private final Map<String, SubmissionJob> jobs = new ConcurrentHashMap<>();
+
+    public SubmissionJobExecutor(
+            @Value("${submission.async.workers:4}") int workers,
+            @Value("${submission.async.queue-capacity:100}") int queueCapacity,
+            @Value("${submission.async.max-attempts:4}") int maxAttempts,
+            @Value("${submission.async.backoff-millis:500}") long backoffMillis,
+            @Value("${submission.async.retention-minutes:60}") long retentionMinutes,
+            BlockingIoExecutor blockingIoExecutor
+    ) {
+        this.executor = new ThreadPoolExecutor(
+                workers,
+                workers,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                blockingIoExecutor.threadFactory("submission-worker-"),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+        this.retentionMillis = TimeUnit.MINUTES.toMillis(retentionMinutes);
+    }
+
+    public <T> SubmissionJob submit(
+            final Integer idContext,
+            final Callable<T> prepare,
+            final Function<T, ResponseEntity<Object>> send
+    ) {
+        this.evictFinished();
+        final SubmissionJob job = new SubmissionJob(idContext);
+        synchronized (this.jobs) {
+            if (this.jobs.values().stream().anyMatch(j -> !j.isFinished() && idContext.equals(j.getIdContext()))) {
+                throw new BadRequestException("a submission for this context is already in progress");
+            }
+            this.jobs.put(job.getId(), job);
+        }
+        try {
+            this.executor.execute(() -> this.run(job, prepare, send));
+        } catch (final RejectedExecutionException e) {
+            this.jobs.remove(job.getId());
+            throw new GenericException("submission queue is full");
+        }
+        return job;
+    }
+
+    public SubmissionJob getJob(final String jobId) {
+        return this.jobs.get(jobId);
+    }
+
+    public int getQueueSize() {
+        return this.executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return this.executor.getActiveCount();
+    }
+
+    private <T> void run(
+            final SubmissionJob job,
+            final Callable<T> prepare,
+            final Function<T, ResponseEntity<Object>> send
+    ) {
+        try {
+            job.running(1);
+            final T payload = prepare.call();
+            for (int attempt = 1; ; attempt++) {
+                job.running(attempt);
+                try {
+                    final ResponseEntity<Object> response = send.apply(payload);
+                    if (Objects.nonNull(response) && response.getStatusCode() == HttpStatus.SERVICE_UNAVAILABLE
+                            && attempt < this.maxAttempts) {
+                        log.warn("submission {} got {} from occurrence provider, retrying", job.getId(), response.getStatusCode());
+                    } else {
+                        job.done(response);
+                        return;
+                    }
+                } catch (final BadRequestException e) {
+                    throw e;
+                } catch (final RuntimeException e) {
+                    if (!notSent(e) || attempt >= this.maxAttempts) {
+                        throw e;
+                    }
+                    log.warn("submission {} attempt {} failed, retrying : {}", job.getId(), attempt, e.getMessage());
+                }
+                Thread.sleep(this.backoffMillis << (attempt - 1));
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.failed(e);
+        } catch (final Exception e) {
+            log.error("submission {} for context {} failed", job.getId(), job.getIdContext(), e);
+            job.failed(e);
+        }
+    }
+
+    // la peticion no ha llegado a salir: no se ha podido resolver el host ni abrir la conexion
+    static boolean notSent(final Throwable e) {
+        for (Throwable cause = e; Objects.nonNull(cause); cause = cause.getCause()) {
+            if (cause instanceof ConnectException
+                    || cause instanceof UnknownHostException
+                    || cause instanceof NoRouteToHostException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void evictFinished() {
+        final long limit = System.currentTimeMillis() - this.retentionMillis;
+        this.jobs.values().removeIf(job -> job.isFinished() && job.getUpdatedAt() < limit);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+}
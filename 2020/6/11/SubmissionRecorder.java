@@ -0,0 +1,271 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentInformation;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationWidget;
+import org.apache.pdfbox.pdmodel.interactive.form.PDAcroForm;
+import org.apache.pdfbox.pdmodel.interactive.form.PDField;
+import org.apache.pdfbox.pdmodel.interactive.form.PDTextField;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/*
+graba los envios reales para reproducirlos despues como prueba de carga ( SubmissionReplayer )
+
+en ${submission.recorder.folder} queda cada pdf una sola vez ( <sha-256 del original>.pdf ) y
+una linea por envio en submissions.log:  hash;isPublic;responsibleEntityId;reportingEntityId
+los datos personales y el usuario no se graban, al reproducir se usan unos inventados.
+
+el pdf se graba anonimizado: los campos de texto se rellenan con el mismo numero de caracteres
+( letras -> x, digitos -> 0, el resto igual ) para que el envio pese y se clasifique igual, los
+combos y casillas se dejan ( son valores de una lista cerrada ). Se quitan las apariencias de
+los campos, la informacion del documento y los metadatos xmp. PDFBox trabaja con ficheros
+temporales dentro de la misma carpeta, que se crea solo para el usuario del proceso y por
+defecto no esta en el tmp compartido.
+
+solo se graban los envios que el proveedor ha aceptado, despues de contestar y en un hilo
+propio: el envio no espera a PDFBox. Como mucho ${submission.recorder.queue-capacity} envios
+esperando a grabarse, si hay mas se descartan. El pdf se lee dentro de una transaccion de
+solo lectura ( el Blob necesita la conexion abierta mientras se lee )
+desactivado por defecto ( ${submission.recorder.enabled} ), si falla al grabar el envio sigue
+ */
+@Slf4j
+@Component
+public class SubmissionRecorder {
+
+    static final String LOG_FILE = "submissions.log";
+
+    private final boolean enabled;
+
+    private final Path folder;
+
+    private final TransactionTemplate readOnly;
+
+    private final ThreadPoolExecutor writer;
+
+    public SubmissionRecorder(
+            PlatformTransactionManager transactionManager,
+            @Value("${submission.recorder.enabled:false}") boolean enabled,
+            @Value("${submission.recorder.folder:${user.home}/.importpdf/corpus}") String folder,
+            @Value("${submission.recorder.queue-capacity:100}") int queueCapacity
+    ) {
+        this.enabled = enabled;
+        this.folder = Paths.get(folder);
+        this.readOnly = new TransactionTemplate(transactionManager);
+        this.readOnly.setReadOnly(true);
+        this.writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                r -> {
+                    final Thread thread = new Thread(r, "submission-recorder");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /*
+    encola la grabacion de un envio ya aceptado. pdf es el contenido del envio, solo se lee si
+    ese hash no esta ya grabado; sin hash ( filas antiguas ) se calcula con una lectura mas
+     */
+    public void record(
+            final String hash,
+            final PdfSource pdf,
+            final boolean isPublic,
+            final int responsibleEntityId,
+            final int reportingEntityId
+    ) {
+        if (!this.enabled) {
+            return;
+        }
+        try {
+            this.writer.execute(() -> this.readOnly.execute(status -> {
+                this.write(hash, pdf, isPublic, responsibleEntityId, reportingEntityId);
+                return null;
+            }));
+        } catch (final RejectedExecutionException e) {
+            log.debug("submission recorder queue full, submission {} not recorded", hash);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        this.writer.shutdownNow();
+    }
+
+    private void write(
+            final String knownHash,
+            final PdfSource pdf,
+            final boolean isPublic,
+            final int responsibleEntityId,
+            final int reportingEntityId
+    ) {
+        String hash = knownHash;
+        try {
+            if (Objects.isNull(hash)) {
+                try (final InputStream is = pdf.open()) {
+                    hash = ContentHashes.sha256(is);
+                }
+            }
+            this.createFolder();
+            final Path target = this.folder.resolve(hash + ".pdf");
+            if (!Files.exists(target)) {
+                final Path tmp = Files.createTempFile(this.folder, hash, ".part");
+                try (final InputStream is = pdf.open();
+                     final PDDocument document = PDDocument.load(is,
+                             MemoryUsageSetting.setupTempFileOnly().setTempDir(this.folder.toFile()))) {
+                    anonymise(document);
+                    document.save(tmp.toFile());
+                    Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(tmp);
+                }
+            }
+            final String line = hash + ';' + isPublic + ';' + responsibleEntityId + ';' + reportingEntityId + '\n';
+            synchronized (this) {
+                Files.write(this.folder.resolve(LOG_FILE), line.getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+        } catch (final Exception e) {
+            log.warn("could not record submission {}: {}", hash, e.getMessage());
+        }
+    }
+
+    private void createFolder() throws IOException {
+        if (Files.isDirectory(this.folder)) {
+            return;
+        }
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createDirectories(this.folder,
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } else {
+            Files.createDirectories(this.folder);
+        }
+    }
+
+    static void anonymise(final PDDocument document) {
+        document.setDocumentInformation(new PDDocumentInformation());
+        document.getDocumentCatalog().setMetadata(null);
+        final PDAcroForm acroForm = document.getDocumentCatalog().getAcroForm();
+        if (Objects.isNull(acroForm)) {
+            return;
+        }
+        for (final PDField field : acroForm.getFieldTree()) {
+            if (!(field instanceof PDTextField)) {
+                continue;
+            }
+            final PDTextField text = (PDTextField) field;
+            // sin setValue: no se regeneran apariencias, se quitan abajo
+            final String value = text.getValue();
+            if (Objects.nonNull(value) && !value.isEmpty()) {
+                text.getCOSObject().setString(COSName.V, mask(value));
+            }
+            text.getCOSObject().removeItem(COSName.RV);
+            for (final PDAnnotationWidget widget : text.getWidgets()) {
+                widget.setAppearance(null);
+            }
+        }
+        acroForm.setNeedAppearances(true);
+    }
+
+    private static String mask(final String value) {
+        final StringBuilder masked = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            masked.append(Character.isLetter(c) ? 'x' : Character.isDigit(c) ? '0' : c);
+        }
+        return masked.toString();
+    }
+
+    /*
+    lee el corpus grabado en folder, las lineas cuyo pdf no esta se saltan
+     */
+    public static List<Recorded> load(final Path folder) throws IOException {
+        final Path logFile = folder.resolve(LOG_FILE);
+        if (!Files.exists(logFile)) {
+            return Collections.emptyList();
+        }
+        final List<Recorded> recorded = new ArrayList<>();
+        for (final String line : Files.readAllLines(logFile, StandardCharsets.UTF_8)) {
+            final String[] parts = line.split(";");
+            if (parts.length != 4) {
+                continue;
+            }
+            final Path pdf = folder.resolve(parts[0] + ".pdf");
+            if (Files.exists(pdf)) {
+                recorded.add(new Recorded(
+                        pdf,
+                        Boolean.parseBoolean(parts[1]),
+                        Integer.parseInt(parts[2]),
+                        Integer.parseInt(parts[3])
+                ));
+            }
+        }
+        return recorded;
+    }
+
+    public interface PdfSource {
+        InputStream open() throws Exception;
+    }
+
+    public static final class Recorded {
+
+        private final Path pdf;
+
+        private final boolean isPublic;
+
+        private final int responsibleEntityId;
+
+        private final int reportingEntityId;
+
+        private Recorded(final Path pdf, final boolean isPublic, final int responsibleEntityId, final int reportingEntityId) {
+            this.pdf = Objects.requireNonNull(pdf);
+            this.isPublic = isPublic;
+            this.responsibleEntityId = responsibleEntityId;
+            this.reportingEntityId = reportingEntityId;
+        }
+
+        public Path getPdf() {
+            return this.pdf;
+        }
+
+        public boolean isPublic() {
+            return this.isPublic;
+        }
+
+        public int getResponsibleEntityId() {
+            return this.responsibleEntityId;
+        }
+
+        public int getReportingEntityId() {
+            return this.reportingEntityId;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.easa.eccairs.auth.client.EccairsAuthUser;
+import org.easa.eccairs.importpdf.core.dto.PersonalDetails;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+prueba de carga: reproduce el corpus grabado por SubmissionRecorder contra ImportPdfServiceImpl
+
+cada envio hace lo mismo que un cliente: beginUploadFile, subir el pdf ( como subida por
+trozos de un solo trozo ), completeUploadFile y submitPdf. Se lanzan a ${loadtest.replay.rate-per-second}
+con como mucho ${loadtest.replay.threads} a la vez, ${loadtest.replay.submissions} en total
+( 0 = una vuelta al corpus ). Al acabar se escribe en el log el rendimiento, los percentiles
+de latencia y los errores por excepcion.
+
+solo existe con el perfil loadtest, que cambia la base de datos por una embebida y el
+proveedor de ocurrencias por LoadTestOcurrencesProvider ( LoadTestConfiguration ), asi la
+prueba nunca escribe en la base de datos real ni crea ocurrencias de verdad. La configuracion
+de campos ( y un corpus sintetico si no hay uno grabado ) la carga antes LoadTestSeed.
+cada envio va por su carril ( isPublic grabado ) con datos personales inventados; los
+autenticados usan el EccairsAuthUser que defina el perfil, si no hay ninguno la prueba no arranca
+ */
+@Slf4j
+@Component
+@Profile("loadtest")
+@Order(1)
+public class SubmissionReplayer implements ApplicationRunner {
+
+    private final ImportPdfServiceImpl importPdfService;
+
+    private final ChunkedUploadStore chunkedUploadStore;
+
+    private final EccairsAuthUser user;
+
+    private final String folder;
+
+    private final double ratePerSecond;
+
+    private final int threads;
+
+    private final int submissions;
+
+    public SubmissionReplayer(
+            ImportPdfServiceImpl importPdfService,
+            ChunkedUploadStore chunkedUploadStore,
+            ObjectProvider<EccairsAuthUser> user,
+            @Value("${loadtest.replay.folder:${submission.recorder.folder:${user.home}/.importpdf/corpus}}") String folder,
+            @Value("${loadtest.replay.rate-per-second:5}") double ratePerSecond,
+            @Value("${loadtest.replay.threads:8}") int threads,
+            @Value("${loadtest.replay.submissions:0}") int submissions
+    ) {
+        this.importPdfService = importPdfService;
+        this.chunkedUploadStore = chunkedUploadStore;
+        this.user = user.getIfAvailable();
+        this.folder = folder;
+        this.ratePerSecond = ratePerSecond;
+        this.threads = threads;
+        this.submissions = submissions;
+    }
+
+    @Override
+    public void run(final ApplicationArguments args) throws Exception {
+        final List<SubmissionRecorder.Recorded> corpus = SubmissionRecorder.load(Paths.get(this.folder));
+        if (corpus.isEmpty()) {
+            log.warn("load test: no recorded submissions in {}", this.folder);
+            return;
+        }
+        if (Objects.isNull(this.user) && corpus.stream().anyMatch(r -> !r.isPublic())) {
+            log.error("load test: the corpus has authenticated submissions but the loadtest profile defines no EccairsAuthUser");
+            return;
+        }
+        final int total = this.submissions > 0 ? this.submissions : corpus.size();
+        final long[] latencies = new long[total];
+        final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+        final AtomicInteger publicCount = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(total);
+        final ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+        final long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / this.ratePerSecond);
+
+        log.info("load test: replaying {} submissions from {} at {}/s", total, this.folder, this.ratePerSecond);
+        final long start = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            // ritmo fijo: si el pool no da abasto los envios esperan en su cola, como en produccion
+            final long wait = start + i * intervalNanos - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            final int n = i;
+            final SubmissionRecorder.Recorded recorded = corpus.get(i % corpus.size());
+            if (recorded.isPublic()) {
+                publicCount.incrementAndGet();
+            }
+            pool.execute(() -> {
+                final long t0 = System.nanoTime();
+                try {
+                    this.replay(n, recorded);
+                    latencies[n] = System.nanoTime() - t0;
+                } catch (final Exception e) {
+                    latencies[n] = -1L;
+                    errors.computeIfAbsent(e.getClass().getSimpleName(), k -> new LongAdder()).increment();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        pool.shutdown();
+        this.report(total, publicCount.get(), System.nanoTime() - start, latencies, errors);
+    }
+
+    private void replay(final int n, final SubmissionRecorder.Recorded recorded) throws Exception {
+        final Integer idContext = this.importPdfService.beginUploadFile();
+        try (final InputStream is = Files.newInputStream(recorded.getPdf())) {
+            this.chunkedUploadStore.append(idContext, 0, is);
+        }
+        this.importPdfService.completeUploadFile(idContext, "loadtest-" + n + ".pdf");
+        this.importPdfService.submitPdf(
+                personalDetails(n),
+                recorded.isPublic() ? null : this.user,
+                idContext,
+                recorded.getResponsibleEntityId(),
+                recorded.getReportingEntityId(),
+                recorded.isPublic());
+    }
+
+    private static PersonalDetails personalDetails(final int n) {
+        final PersonalDetails personalDetails = new PersonalDetails();
+        personalDetails.setFirstName("Load");
+        personalDetails.setLastName("Test" + n);
+        personalDetails.setUsername("loadtest" + n);
+        personalDetails.setTelephone("+34 600000000");
+        personalDetails.setEmail("loadtest" + n + "@example.org");
+        return personalDetails;
+    }
+
+    private void report(
+            final int total,
+            final int recordedPublic,
+            final long elapsedNanos,
+            final long[] latencies,
+            final Map<String, LongAdder> errors
+    ) {
+        final long[] ok = Arrays.stream(latencies).filter(l -> l >= 0).sorted().toArray();
+        final double seconds = elapsedNanos / 1e9;
+        log.info("load test: {} submissions ( {} public ) in {} s, {} ok/s, error rate {} %",
+                total,
+                recordedPublic,
+                String.format("%.1f", seconds),
+                String.format("%.2f", ok.length / seconds),
+                String.format("%.2f", 100.0 * (total - ok.length) / total));
+        if (ok.length > 0) {
+            log.info("load test latency ms: p50 {} p90 {} p99 {} max {}",
+                    percentile(ok, 50), percentile(ok, 90), percentile(ok, 99), percentile(ok, 100));
+        }
+        if (!errors.isEmpty()) {
+            log.info("load test errors: {}", new TreeMap<>(errors));
+        }
+    }
+
+    private static long percentile(final long[] sorted, final int p) {
+        final int i = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, Math.min(i, sorted.length - 1))]);
+    }
+}
@@ -0,0 +1,191 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.easa.eccairs.importpdf.core.exception.GenericException;
+import org.easa.eccairs.importpdf.core.exception.TooManyRequestsException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/*
+admision de los envios por clase de trafico
+
+los envios publicos ( anonimos ) y los autenticados tienen cada uno su cupo de envios a la vez
+( max-concurrent ) y su cola de espera ( queue-capacity, max-wait-millis ), asi una racha de
+envios publicos no deja sin hueco a los notificadores autenticados. Con la cola llena se
+rechaza en el momento, sin esperar, y si no hay hueco en max-wait-millis tambien. Los rechazos
+son 429 ( TooManyRequestsException ) para que el cliente reintente mas tarde.
+
+esto solo ordena los envios sincronos; lo que abre pdfs por otro camino ( parseo adelantado,
+envios asincronos, lotes ) se reparte los huecos de parseo por clase en PdfParseLimits.admit
+
+con per-entity > 0 ademas cada reportingEntityId tiene como mucho ese numero de envios a la vez
+
+propiedades submission.scheduler.public.* y submission.scheduler.authenticated.*
+
+metricas:
+importpdf.scheduler.queue    envios esperando hueco, por clase
+importpdf.scheduler.active   envios en marcha, por clase
+importpdf.scheduler.wait     tiempo esperando hueco, por clase
+importpdf.scheduler.rejected rechazados por clase y motivo ( queue, timeout, entity )
+ */
+@Component
+public class SubmissionScheduler {
+
+    public enum TrafficClass {
+        PUBLIC,
+        AUTHENTICATED
+    }
+
+    private final Map<TrafficClass, Lane> lanes = new EnumMap<>(TrafficClass.class);
+
+    private final int perEntity;
+
+    private final Map<Integer, Integer> entityInFlight = new ConcurrentHashMap<>();
+
+    private final MeterRegistry registry;
+
+    public SubmissionScheduler(
+            MeterRegistry registry,
+            @Value("${submission.scheduler.public.max-concurrent:2}") int publicConcurrent,
+            @Value("${submission.scheduler.public.queue-capacity:10}") int publicQueue,
+            @Value("${submission.scheduler.public.max-wait-millis:2000}") long publicWait,
+            @Value("${submission.scheduler.authenticated.max-concurrent:8}") int authenticatedConcurrent,
+            @Value("${submission.scheduler.authenticated.queue-capacity:100}") int authenticatedQueue,
+            @Value("${submission.scheduler.authenticated.max-wait-millis:30000}") long authenticatedWait,
+            @Value("${submission.scheduler.per-entity:0}") int perEntity
+    ) {
+        this.registry = registry;
+        this.perEntity = perEntity;
+        this.lanes.put(TrafficClass.PUBLIC, new Lane(TrafficClass.PUBLIC, publicConcurrent, publicQueue, publicWait));
+        this.lanes.put(TrafficClass.AUTHENTICATED,
+                new Lane(TrafficClass.AUTHENTICATED, authenticatedConcurrent, authenticatedQueue, authenticatedWait));
+    }
+
+    public static TrafficClass classOf(final boolean isPublic) {
+        return isPublic ? TrafficClass.PUBLIC : TrafficClass.AUTHENTICATED;
+    }
+
+    /*
+    ejecuta el envio en el hilo que llama cuando haya hueco en su clase, o lanza
+    TooManyRequestsException ( 429 ) si no lo hay
+     */
+    public <T> T run(final boolean isPublic, final int reportingEntityId, final Supplier<T> submission) {
+        final Lane lane = this.lanes.get(classOf(isPublic));
+        this.acquireEntity(lane, reportingEntityId);
+        try {
+            lane.acquire();
+            try {
+                return submission.get();
+            } finally {
+                lane.running.release();
+            }
+        } finally {
+            this.releaseEntity(reportingEntityId);
+        }
+    }
+
+    public int getQueued(final TrafficClass trafficClass) {
+        return this.lanes.get(trafficClass).waiting.get();
+    }
+
+    public int getActive(final TrafficClass trafficClass) {
+        final Lane lane = this.lanes.get(trafficClass);
+        return lane.maxConcurrent - lane.running.availablePermits();
+    }
+
+    private void acquireEntity(final Lane lane, final int reportingEntityId) {
+        if (this.perEntity <= 0) {
+            return;
+        }
+        if (this.entityInFlight.merge(reportingEntityId, 1, Integer::sum) > this.perEntity) {
+            this.releaseEntity(reportingEntityId);
+            lane.reject("entity");
+        }
+    }
+
+    private void releaseEntity(final int reportingEntityId) {
+        if (this.perEntity > 0) {
+            this.entityInFlight.computeIfPresent(reportingEntityId, (k, v) -> v <= 1 ? null : v - 1);
+        }
+    }
+
+    private final class Lane {
+
+        private final String tag;
+
+        private final int maxConcurrent;
+
+        private final Semaphore running;
+
+        private final int queueCapacity;
+
+        private final long maxWaitMillis;
+
+        private final AtomicInteger waiting = new AtomicInteger();
+
+        private final Timer wait;
+
+        private Lane(final TrafficClass trafficClass, final int maxConcurrent, final int queueCapacity, final long maxWaitMillis) {
+            this.tag = trafficClass.name().toLowerCase();
+            this.maxConcurrent = maxConcurrent;
+            this.running = new Semaphore(maxConcurrent, true);
+            this.queueCapacity = queueCapacity;
+            this.maxWaitMillis = maxWaitMillis;
+            this.wait = Timer.builder("importpdf.scheduler.wait")
+                    .tag("class", this.tag)
+                    .publishPercentileHistogram()
+                    .register(SubmissionScheduler.this.registry);
+            Gauge.builder("importpdf.scheduler.queue", this.waiting, AtomicInteger::get)
+                    .tag("class", this.tag)
+                    .register(SubmissionScheduler.this.registry);
+            Gauge.builder("importpdf.scheduler.active", this, l -> l.maxConcurrent - l.running.availablePermits())
+                    .tag("class", this.tag)
+                    .register(SubmissionScheduler.this.registry);
+        }
+
+        private void acquire() {
+            if (this.running.tryAcquire()) {
+                this.wait.record(0, TimeUnit.NANOSECONDS);
+                return;
+            }
+            // cola llena: se rechaza ya, sin esperar
+            if (this.waiting.incrementAndGet() > this.queueCapacity) {
+                this.waiting.decrementAndGet();
+                this.reject("queue");
+            }
+            final long start = System.nanoTime();
+            try {
+                final boolean acquired = this.running.tryAcquire(this.maxWaitMillis, TimeUnit.MILLISECONDS);
+                this.wait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                if (!acquired) {
+                    this.reject("timeout");
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GenericException(e.getMessage());
+            } finally {
+                this.waiting.decrementAndGet();
+            }
+        }
+
+        private void reject(final String reason) {
+            Counter.builder("importpdf.scheduler.rejected")
+                    .tag("class", this.tag)
+                    .tag("reason", reason)
+                    .register(SubmissionScheduler.this.registry)
+                    .increment();
+            throw new TooManyRequestsException("too many " + this.tag + " submissions, try again later");
+        }
+    }
+}
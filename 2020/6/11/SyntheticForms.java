@@ -0,0 +1,148 @@
+package org.easa.eccairs.importpdf.benchmark;
+
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.interactive.form.PDAcroForm;
+import org.apache.pdfbox.pdmodel.interactive.form.PDComboBox;
+import org.apache.pdfbox.pdmodel.interactive.form.PDTextField;
+import org.easa.eccairs.importpdf.data.model.AttributeModel;
+import org.easa.eccairs.importpdf.data.model.PdfFieldConfModel;
+import org.easa.eccairs.importpdf.util.Constants;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+formularios AcroForm inventados, uno por tipo de pdf, y su configuracion de campos
+
+cada formulario tiene los mismos contadores que la regla de PdfTypeClassifier.classifyByCounts
+( campos que empiezan por "T" y campos de texto "Tx" ), el resto de campos "T" son combos con
+unas pocas opciones. Todos los campos estan en pdf_field_conf, repartidos entre la raiz ( 24 ),
+la entidad 1 y la entidad 22 dentro de la 1, asi getStructure monta tres niveles.
+
+todo se genera en memoria con PDFBox, no hace falta ningun fichero ni la base de datos
+ */
+public final class SyntheticForms {
+
+    public enum Type {
+        IND(Constants.PDF_TYPE_IND, 40, 19),
+        AER(Constants.PDF_TYPE_AER, 200, 78),
+        ATM(Constants.PDF_TYPE_ATM, 250, 90),
+        FLI(Constants.PDF_TYPE_FLI, 256, 100),
+        TEC(Constants.PDF_TYPE_TEC, 231, 122),
+        ORG(Constants.PDF_TYPE_ORG, 63, 26);
+
+        private final String pdfType;
+
+        private final int fields;
+
+        private final int textFields;
+
+        Type(final String pdfType, final int fields, final int textFields) {
+            this.pdfType = pdfType;
+            this.fields = fields;
+            this.textFields = textFields;
+        }
+
+        public String getPdfType() {
+            return this.pdfType;
+        }
+    }
+
+    private static final String[] HIERARCHIES = {
+            "{\"24\": {}}",
+            "{\"24\": {\"1\": {}}}",
+            "{\"24\": {\"1\": {\"22\": {}}}}"
+    };
+
+    private static final List<String> COMBO_EXPORT = Arrays.asList("901", "902", "903", "904");
+
+    private static final List<String> COMBO_DISPLAY = Arrays.asList("Africa", "Asia", "Europe", "Middle East");
+
+    private SyntheticForms() {
+    }
+
+    public static String fieldName(final int i) {
+        return "T" + i + "_A" + code(i);
+    }
+
+    /*
+    el pdf ya relleno: los campos de texto con un valor de unas decenas de caracteres y los
+    combos con una de sus opciones
+     */
+    public static byte[] pdf(final Type type) throws IOException {
+        try (final PDDocument document = new PDDocument()) {
+            document.addPage(new PDPage());
+            final PDAcroForm acroForm = new PDAcroForm(document);
+            document.getDocumentCatalog().setAcroForm(acroForm);
+            final PDResources resources = new PDResources();
+            resources.put(COSName.getPDFName("Helv"), PDType1Font.HELVETICA);
+            acroForm.setDefaultResources(resources);
+            acroForm.setDefaultAppearance("/Helv 0 Tf 0 g");
+            // sin widgets: que PDFBox no intente generar apariencias al poner los valores
+            acroForm.setNeedAppearances(true);
+            for (int i = 0; i < type.fields; i++) {
+                if (i < type.textFields) {
+                    final PDTextField field = new PDTextField(acroForm);
+                    field.setPartialName(fieldName(i));
+                    acroForm.getFields().add(field);
+                    field.setValue("value of field " + i + " for a synthetic " + type.name() + " report");
+                } else {
+                    final PDComboBox field = new PDComboBox(acroForm);
+                    field.setPartialName(fieldName(i));
+                    field.setOptions(COMBO_EXPORT, COMBO_DISPLAY);
+                    field.setEdit(true);
+                    acroForm.getFields().add(field);
+                    field.setValue(COMBO_DISPLAY.get(i % COMBO_DISPLAY.size()));
+                }
+            }
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.save(out);
+            return out.toByteArray();
+        }
+    }
+
+    // filas de attribute de todos los tipos, ids distintos por tipo
+    public static List<AttributeModel> attributes() {
+        final List<AttributeModel> rows = new ArrayList<>();
+        for (final Type type : Type.values()) {
+            for (int i = 0; i < type.fields; i++) {
+                final AttributeModel am = new AttributeModel();
+                am.setId(attributeId(type, i));
+                am.setTaxonomy_code(code(i));
+                rows.add(am);
+            }
+        }
+        return rows;
+    }
+
+    // filas de pdf_field_conf de todos los tipos
+    public static List<PdfFieldConfModel> pdfFieldConfs() {
+        final List<PdfFieldConfModel> rows = new ArrayList<>();
+        for (final Type type : Type.values()) {
+            for (int i = 0; i < type.fields; i++) {
+                final PdfFieldConfModel conf = new PdfFieldConfModel();
+                conf.setPdf_id(Integer.parseInt(type.pdfType));
+                conf.setName(fieldName(i));
+                conf.setAttribute_id(attributeId(type, i));
+                conf.setHierarchy(HIERARCHIES[i % HIERARCHIES.length]);
+                rows.add(conf);
+            }
+        }
+        return rows;
+    }
+
+    private static int attributeId(final Type type, final int i) {
+        return type.ordinal() * 1000 + i + 1;
+    }
+
+    private static int code(final int i) {
+        return 100 + i;
+    }
+}
@@ -0,0 +1,143 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.easa.eccairs.importpdf.util.Constants;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+registro de la taxonomia ( version taxonomy.version, por defecto ECCAIRS Aviation 4.1.0.7,
+la de Constants.geTaxIds() )
+
+se carga al arrancar con claves enteras:
+ - clave de entidad ( "24", "1", "22" ... ) -> id de entidad, en dos arrays ordenados
+   ( busqueda binaria, sin Integer ni String nuevos por consulta ), se usa al montar cada ocurrencia
+ - codigo de atributo -> su cadena, compartida. Solo se usa al cargar la configuracion de campos
+   ( FieldConfCache ), los envios ya reciben esas mismas cadenas
+
+las claves de entidad que no son numericas ( si las hubiera ) van a un mapa aparte
+
+reload(...) cambia a otra taxonomia de golpe ( una sola referencia volatile ) y sube
+getRevision(): FieldConfCache y ParseResultCache lo comparan con el de su carga y lo que se
+cargo con la anterior deja de valer
+ */
+@Slf4j
+@Component
+public class TaxonomyRegistry {
+
+    private static final int MAX_CACHED_CODE = 4096;
+
+    private final String[] codes = new String[MAX_CACHED_CODE];
+
+    private final AtomicLong revision = new AtomicLong();
+
+    private volatile Taxonomy taxonomy;
+
+    public TaxonomyRegistry(
+            @Value("${taxonomy.version:4.1.0.7}") String version
+    ) {
+        this.reload(version, Constants.geTaxIds());
+    }
+
+    // cambia a otra taxonomia, lo cargado con la anterior se vuelve a cargar
+    public void reload(final String version, final Map<String, String> taxIds) {
+        this.taxonomy = new Taxonomy(version, taxIds);
+        final long r = this.revision.incrementAndGet();
+        log.info("taxonomy {} loaded with {} entities ( revision {} )", version, taxIds.size(), r);
+    }
+
+    public String getVersion() {
+        return this.taxonomy.version;
+    }
+
+    public long getRevision() {
+        return this.revision.get();
+    }
+
+    public String entityId(final int key) {
+        final Taxonomy t = this.taxonomy;
+        final int i = Arrays.binarySearch(t.entityKeys, key);
+        return i < 0 ? null : t.entityIds[i];
+    }
+
+    public String entityId(final String key) {
+        final int k = parseKey(key);
+        return k < 0 ? this.taxonomy.otherEntityIds.get(key) : this.entityId(k);
+    }
+
+    /*
+    cadena del codigo, siempre la misma instancia para los codigos habituales
+     */
+    public String code(final int code) {
+        if (code < 0 || code >= MAX_CACHED_CODE) {
+            return Integer.toString(code);
+        }
+        String s = this.codes[code];
+        if (s == null) {
+            // carrera inocua: como mucho se crea la misma cadena dos veces
+            s = Integer.toString(code);
+            this.codes[code] = s;
+        }
+        return s;
+    }
+
+    /*
+    entero de la clave sin crear objetos, -1 si no es un numero
+     */
+    static int parseKey(final String key) {
+        if (key == null || key.isEmpty() || key.length() > 9) {
+            return -1;
+        }
+        int k = 0;
+        for (int i = 0; i < key.length(); i++) {
+            final char c = key.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            k = k * 10 + (c - '0');
+        }
+        return k;
+    }
+
+    private static final class Taxonomy {
+
+        private final String version;
+
+        private final int[] entityKeys;
+
+        private final String[] entityIds;
+
+        private final Map<String, String> otherEntityIds;
+
+        private Taxonomy(final String version, final Map<String, String> taxIds) {
+            this.version = version;
+            // solo al cargar: se ordena por clave con un TreeMap
+            final TreeMap<Integer, String> numeric = new TreeMap<>();
+            final Map<String, String> other = new HashMap<>();
+            for (final Map.Entry<String, String> m : taxIds.entrySet()) {
+                final int k = parseKey(m.getKey());
+                if (k < 0) {
+                    other.put(m.getKey(), m.getValue());
+                } else {
+                    numeric.put(k, m.getValue());
+                }
+            }
+            this.entityKeys = new int[numeric.size()];
+            this.entityIds = new String[numeric.size()];
+            int i = 0;
+            for (final Map.Entry<Integer, String> m : numeric.entrySet()) {
+                this.entityKeys[i] = m.getKey();
+                this.entityIds[i] = m.getValue();
+                i++;
+            }
+            this.otherEntityIds = Collections.unmodifiableMap(other);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.easa.eccairs.importpdf.core.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/*
+429: no hay hueco para el envio en su clase de trafico ( SubmissionScheduler ), el cliente
+puede volver a intentarlo mas tarde
+ */
+@ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+public class TooManyRequestsException extends RuntimeException {
+
+    public TooManyRequestsException(final String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,28 @@
+package org.easa.eccairs.importpdf.core.service.impl;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/*
+con execution.virtual-threads.enabled=true Tomcat atiende cada peticion en un hilo virtual,
+asi un envio bloqueado en jdbc o en el proveedor no ocupa un hilo del pool de Tomcat
+ */
+@Configuration
+@ConditionalOnClass(name = "org.apache.catalina.startup.Tomcat")
+@ConditionalOnProperty(name = "execution.virtual-threads.enabled", havingValue = "true")
+public class VirtualThreadConfiguration {
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer(
+            final BlockingIoExecutor blockingIoExecutor
+    ) {
+        return protocolHandler -> {
+            if (blockingIoExecutor.isVirtual()) {
+                protocolHandler.setExecutor(blockingIoExecutor.getExecutor());
+            }
+        };
+    }
+}
@@ -0,0 +1,102 @@
+package org.easa.eccairs.importpdf.benchmark;
+
+import org.easa.eccairs.importpdf.data.model.AttributeModel;
+import org.easa.eccairs.importpdf.data.model.PdfFieldConfModel;
+import org.easa.eccairs.importpdf.data.repository.AttributeRepository;
+import org.easa.eccairs.importpdf.data.repository.PdfFieldConfRepository;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/*
+AttributeRepository y PdfFieldConfRepository en memoria para las pruebas de rendimiento
+
+son interfaces de Spring Data, asi que en vez de implementar todo JpaRepository se crea un
+proxy de solo lectura con lo que usa la cadena pdf -> ocurrencia ( FieldConfCache carga con
+findAll() ) y las consultas por id de CrudRepository: findAll(), findAllById, findById,
+existsById y count(). Cualquier otro metodo lanza UnsupportedOperationException con su firma,
+para que se note si alguien empieza a usarlo
+ */
+public final class InMemoryRepositories {
+
+    private InMemoryRepositories() {
+    }
+
+    public static AttributeRepository attributes(final List<AttributeModel> rows) {
+        return repository(AttributeRepository.class, rows, AttributeModel::getId);
+    }
+
+    public static PdfFieldConfRepository pdfFieldConfs(final List<PdfFieldConfModel> rows) {
+        return repository(PdfFieldConfRepository.class, rows, PdfFieldConfModel::getId);
+    }
+
+    private static <R, T> R repository(final Class<R> type, final List<T> rows, final Function<T, ?> idOf) {
+        final List<T> all = Collections.unmodifiableList(rows);
+        final Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (self, method, args) -> {
+            final int arity = args == null ? 0 : args.length;
+            switch (method.getName()) {
+                case "findAll":
+                    if (arity == 0) {
+                        return all;
+                    }
+                    break;
+                case "findAllById":
+                    if (arity == 1 && args[0] instanceof Iterable) {
+                        final List<Object> ids = new ArrayList<>();
+                        ((Iterable<?>) args[0]).forEach(ids::add);
+                        return all.stream()
+                                .filter(row -> ids.contains(idOf.apply(row)))
+                                .collect(Collectors.toList());
+                    }
+                    break;
+                case "findById":
+                    if (arity == 1) {
+                        return byId(all, idOf, args[0]);
+                    }
+                    break;
+                case "existsById":
+                    if (arity == 1) {
+                        return byId(all, idOf, args[0]).isPresent();
+                    }
+                    break;
+                case "count":
+                    if (arity == 0) {
+                        return (long) all.size();
+                    }
+                    break;
+                case "toString":
+                    return "in-memory " + type.getSimpleName() + " ( " + all.size() + " rows )";
+                case "hashCode":
+                    return System.identityHashCode(self);
+                case "equals":
+                    return self == args[0];
+                default:
+                    break;
+            }
+            throw new UnsupportedOperationException(signature(type, method)
+                    + " is not available in memory, only findAll(), findAllById, findById, existsById and count()");
+        });
+        return type.cast(proxy);
+    }
+
+    private static <T> Optional<T> byId(final List<T> rows, final Function<T, ?> idOf, final Object id) {
+        return rows.stream()
+                .filter(row -> Objects.equals(idOf.apply(row), id))
+                .findFirst();
+    }
+
+    // AttributeRepository.save(Object)
+    private static String signature(final Class<?> type, final Method method) {
+        return type.getSimpleName() + "." + method.getName() + Arrays.stream(method.getParameterTypes())
+                .map(Class::getSimpleName)
+                .collect(Collectors.joining(", ", "(", ")"));
+    }
+}
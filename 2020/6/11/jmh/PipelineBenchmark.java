@@ -0,0 +1,227 @@
+package org.easa.eccairs.importpdf.benchmark;
+
+import org.easa.eccairs.importpdf.core.dto.PersonalDetails;
+import org.easa.eccairs.importpdf.core.service.PdfParseSession;
+import org.easa.eccairs.importpdf.core.service.impl.ComboOptionsCache;
+import org.easa.eccairs.importpdf.core.service.impl.DownloadResourceCache;
+import org.easa.eccairs.importpdf.core.service.impl.FieldConfCache;
+import org.easa.eccairs.importpdf.core.service.impl.FormTemplateCache;
+import org.easa.eccairs.importpdf.core.service.impl.PdfParseLimits;
+import org.easa.eccairs.importpdf.core.service.impl.PdfParserServiceImpl;
+import org.easa.eccairs.importpdf.core.service.impl.PdfTypeClassifier;
+import org.easa.eccairs.importpdf.core.service.impl.TaxonomyRegistry;
+import org.easa.eccairs.importpdf.data.repository.AttributeRepository;
+import org.easa.eccairs.importpdf.data.repository.PdfFieldConfRepository;
+import org.easa.eccairs.importpdf.util.TaxNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.io.DescriptiveResource;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+pruebas de rendimiento de la cadena pdf -> ocurrencia, etapa a etapa y de punta a punta
+
+documentLoad          abrir el pdf con PDFBox ( openSession ) y cerrarlo
+getPdfType            clasificar, con la sesion recien abierta ( incluye recorrer el acroForm )
+getMapCodeValueIDForm sacar los valores de los campos configurados, con la sesion ya indexada
+getStructure          montar el TaxNode con la jerarquia compilada
+mountOcurrences       la ocurrencia como Map ( la forma antigua )
+mountOcurrencesJson   la ocurrencia escrita en json desde el TaxNode
+endToEnd              todo lo anterior seguido, como en un envio
+
+cada una para los seis tipos ( @Param type ) con los formularios de SyntheticForms y la
+configuracion en memoria de InMemoryRepositories: sin base de datos, sin red y sin ficheros.
+Se mide rendimiento ( ops/ms ) y latencia ( percentiles de SampleTime ), main() anade el
+profiler gc para la tasa de asignacion ( gc.alloc.rate.norm = bytes por operacion ).
+
+esta carpeta ( jmh/ ) es un juego de fuentes aparte, no entra en el jar del servicio
+( SyntheticForms si, lo usa tambien el perfil loadtest ). Se compila con el procesador de
+anotaciones de jmh y se lanza sin red con jmh/run-benchmarks.sh [regex], o con main()
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Pipeline {
+
+        @Param({"IND", "AER", "ATM", "FLI", "TEC", "ORG"})
+        public SyntheticForms.Type type;
+
+        PdfParserServiceImpl parser;
+
+        FieldConfCache fieldConfCache;
+
+        String pdfType;
+
+        byte[] pdf;
+
+        PersonalDetails personalDetails;
+
+        Map<String, String> mapCodes;
+
+        TaxNode structure;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            final AttributeRepository attributes = InMemoryRepositories.attributes(SyntheticForms.attributes());
+            final PdfFieldConfRepository pdfFieldConfs = InMemoryRepositories.pdfFieldConfs(SyntheticForms.pdfFieldConfs());
+            final TaxonomyRegistry taxonomyRegistry = new TaxonomyRegistry("4.1.0.7");
+            // que la configuracion no caduque en mitad de una medida
+            this.fieldConfCache = new FieldConfCache(attributes, pdfFieldConfs, taxonomyRegistry, 86400, 30);
+            final DescriptiveResource none = new DescriptiveResource("no resource in benchmarks");
+            this.parser = new PdfParserServiceImpl(
+                    attributes,
+                    pdfFieldConfs,
+                    this.fieldConfCache,
+                    new PdfTypeClassifier(256),
+                    new ComboOptionsCache(new FormTemplateCache(new DownloadResourceCache(), none)),
+                    // sin espera por huecos: se mide el trabajo, no la admision
+                    new PdfParseLimits(1024, 5000, 16 * 1024 * 1024, "", 50 * 1024 * 1024, 2000, 1024, 1024),
+                    taxonomyRegistry,
+                    "");
+            this.pdfType = this.type.getPdfType();
+            this.pdf = SyntheticForms.pdf(this.type);
+            this.personalDetails = personalDetails();
+            this.fieldConfCache.warmUp();
+            try (final PdfParseSession session = this.parser.openSession(this.pdf)) {
+                final String classified = this.parser.getPdfType(session);
+                if (!this.pdfType.equals(classified)) {
+                    throw new IllegalStateException("synthetic " + this.type + " classified as " + classified);
+                }
+                this.mapCodes = this.parser.getMapCodeValueIDForm(session, this.pdfType);
+            }
+            this.structure = this.parser.getStructure(this.mapCodes, this.pdfType);
+        }
+
+        private static PersonalDetails personalDetails() {
+            final PersonalDetails personalDetails = new PersonalDetails();
+            personalDetails.setFirstName("Bench");
+            personalDetails.setLastName("Mark");
+            personalDetails.setUsername("benchmark");
+            personalDetails.setTelephone("+34 600000000");
+            personalDetails.setEmail("benchmark@example.org");
+            return personalDetails;
+        }
+    }
+
+    /*
+    una sesion nueva por invocacion, las etapas que la usan la modifican ( indice de campos )
+    y no se puede reutilizar entre medidas
+     */
+    @State(Scope.Thread)
+    public static class FreshSession {
+
+        PdfParseSession session;
+
+        @Setup(Level.Invocation)
+        public void open(final Pipeline pipeline) throws IOException {
+            this.session = pipeline.parser.openSession(pipeline.pdf);
+        }
+
+        @TearDown(Level.Invocation)
+        public void close() throws IOException {
+            this.session.close();
+        }
+    }
+
+    // igual pero ya clasificada, como la encuentra getMapCodeValueIDForm en un envio
+    @State(Scope.Thread)
+    public static class IndexedSession {
+
+        PdfParseSession session;
+
+        @Setup(Level.Invocation)
+        public void open(final Pipeline pipeline) throws IOException {
+            this.session = pipeline.parser.openSession(pipeline.pdf);
+            pipeline.parser.getPdfType(this.session);
+        }
+
+        @TearDown(Level.Invocation)
+        public void close() throws IOException {
+            this.session.close();
+        }
+    }
+
+    @Benchmark
+    public int documentLoad(final Pipeline pipeline) throws IOException {
+        try (final PdfParseSession session = pipeline.parser.openSession(pipeline.pdf)) {
+            return session.getRootFields().size();
+        }
+    }
+
+    @Benchmark
+    public String getPdfType(final Pipeline pipeline, final FreshSession fresh) {
+        return pipeline.parser.getPdfType(fresh.session);
+    }
+
+    @Benchmark
+    public Map<String, String> getMapCodeValueIDForm(final Pipeline pipeline, final IndexedSession indexed) {
+        return pipeline.parser.getMapCodeValueIDForm(indexed.session, pipeline.pdfType);
+    }
+
+    @Benchmark
+    public TaxNode getStructure(final Pipeline pipeline) {
+        return pipeline.parser.getStructure(pipeline.mapCodes, pipeline.pdfType);
+    }
+
+    @Benchmark
+    public Map mountOcurrences(final Pipeline pipeline) {
+        return pipeline.parser.mountOcurrences(
+                pipeline.mapCodes,
+                pipeline.personalDetails,
+                null,
+                null,
+                1,
+                1,
+                pipeline.pdfType,
+                "benchmark.pdf",
+                null,
+                pipeline.structure,
+                true);
+    }
+
+    @Benchmark
+    public byte[] mountOcurrencesJson(final Pipeline pipeline) throws IOException {
+        return pipeline.parser.mountOcurrencesJson(pipeline.personalDetails, null, 1, 1, pipeline.structure, true);
+    }
+
+    @Benchmark
+    public byte[] endToEnd(final Pipeline pipeline) throws IOException {
+        try (final PdfParseSession session = pipeline.parser.openSession(pipeline.pdf)) {
+            final String pdfType = pipeline.parser.getPdfType(session);
+            final Map<String, String> mapCodes = pipeline.parser.getMapCodeValueIDForm(session, pdfType);
+            final TaxNode structure = pipeline.parser.getStructure(mapCodes, pdfType);
+            return pipeline.parser.mountOcurrencesJson(pipeline.personalDetails, null, 1, 1, structure, true);
+        }
+    }
+
+    // args: regex de las pruebas a lanzar, por defecto todas
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PipelineBenchmark.class.getSimpleName() + (args.length > 0 ? "." + args[0] : ""))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,38 @@
+#!/bin/sh
+# compila y lanza las pruebas de rendimiento ( PipelineBenchmark ) sin red
+#
+#   APP_CLASSPATH  clases del servicio y sus dependencias ( spring, pdfbox, jackson... ), por
+#                  ejemplo target/classes:$(cat cp.txt) con el cp.txt que saca una vez
+#                  mvn dependency:build-classpath -Dmdep.outputFile=cp.txt
+#   JMH_LIB        carpeta con jmh-core, jmh-generator-annprocess, jopt-simple y
+#                  commons-math3 ( copiados una vez del repositorio local de maven )
+#   JMH_OUT        donde se compila, por defecto jmh/build
+#
+# jmh/run-benchmarks.sh                  todas, con el profiler gc
+# jmh/run-benchmarks.sh 'endToEnd' -p type=IND
+# los argumentos van tal cual a org.openjdk.jmh.Main
+set -eu
+
+HERE=$(cd "$(dirname "$0")" && pwd)
+: "${APP_CLASSPATH:?APP_CLASSPATH must list the service classes and their dependencies}"
+: "${JMH_LIB:?JMH_LIB must be a folder with the jmh jars}"
+OUT=${JMH_OUT:-"$HERE/build"}
+
+JMH_CP=$(find "$JMH_LIB" -maxdepth 1 -name '*.jar' | sort | tr '\n' ':')
+if [ -z "$JMH_CP" ]; then
+    echo "no jars in $JMH_LIB" >&2
+    exit 1
+fi
+
+rm -rf "$OUT"
+mkdir -p "$OUT/classes" "$OUT/generated"
+
+# el procesador de jmh genera las clases de cada prueba y META-INF/BenchmarkList
+javac -encoding UTF-8 \
+    -cp "$APP_CLASSPATH:$JMH_CP" \
+    -processorpath "$JMH_CP" \
+    -s "$OUT/generated" \
+    -d "$OUT/classes" \
+    "$HERE"/*.java
+
+exec java -cp "$OUT/classes:$APP_CLASSPATH:$JMH_CP" org.openjdk.jmh.Main -prof gc "$@"